@@ -0,0 +1,601 @@
+package karyon.math.collections;
+
+import karyon.exceptions.InvalidParameterException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Disk Backed Sparse Double Matrix is a sparse matrix whose rows are
+ * stored in tiles of consecutive rows in files in a local directory,
+ * for matrices which are too large to hold in memory.
+ *
+ * Rows are appended in order and are written to disk as each tile fills.
+ * Multiplication streams the tiles back through two direct buffers,
+ * reading the next tile on a background thread while the current tile
+ * is being processed, so the only tile data resident at any time is the
+ * two buffers.  Each buffer is half of the memory limit, which also
+ * bounds the size of a tile.  The dense operands and results of a
+ * multiplication are held in memory and are not part of the limit.
+ *
+ * Tiles are read ahead on a single background thread which is kept for
+ * the life of the matrix, close or delete the matrix to remove the tiles
+ * and stop the thread.
+ *
+ * Each tile is stored in its own uniquely named file in the directory,
+ * so several matrices may share a directory.
+ * Each tile is stored as a sequence of rows, each row being the number
+ * of values, the column indices then the values, in little endian order.
+ */
+public class DiskBackedSparseDoubleMatrix
+    extends karyon.Object
+    implements Closeable
+{
+    /**
+     * The smallest memory limit allowed
+     */
+    public static final long MIN_MEMORY_LIMIT = 1024;
+
+    private static final double BYTES_PER_MB = 1024 * 1024;
+
+    /**
+     * Describes a tile which has been written to disk
+     */
+    private class Tile
+    {
+        private File m_oFile;
+        private int m_nFirstRow;
+        private int m_nBytes;
+
+        /**
+         * Creates a new tile
+         * @param toFile the file the tile is stored in
+         * @param tnFirstRow the first row stored in the tile
+         * @param tnBytes the size of the tile in bytes
+         */
+        public Tile(File toFile, int tnFirstRow, int tnBytes)
+        {
+            m_oFile = toFile;
+            m_nFirstRow = tnFirstRow;
+            m_nBytes = tnBytes;
+        }
+    }
+
+    /**
+     * Processes the rows of a tile during a multiplication
+     */
+    private abstract class TileVisitor
+    {
+        /**
+         * Processes the tile
+         * @param toBuffer the contents of the tile, from position 0 to the limit
+         * @param tnFirstRow the first row stored in the tile
+         */
+        public abstract void visit(ByteBuffer toBuffer, int tnFirstRow);
+    }
+
+    private File m_oDirectory;
+    private int m_nColumns;
+    private long m_nMemoryLimit;
+    private int m_nTileSize;
+    private int m_nRows;
+    private long m_nNonZeroCount;
+    private int m_nPendingFirstRow;
+    private karyon.collections.List<Tile> m_oTiles;
+    private ByteBuffer[] m_aBuffers;
+    private ExecutorService m_oReader;
+    private long m_nLastBytesRead;
+    private long m_nLastElapsedNanos;
+
+    /**
+     * Creates a new empty matrix stored in the specified directory
+     * @param toDirectory the directory to store the tiles in, created if it does not exist
+     * @param tnColumns the number of columns in the matrix
+     * @param tnMemoryLimit the number of bytes of tile data which may be resident at once
+     */
+    public DiskBackedSparseDoubleMatrix(File toDirectory, int tnColumns, long tnMemoryLimit)
+    {
+        if (toDirectory == null || (!toDirectory.isDirectory() && !toDirectory.mkdirs()))
+        {
+            throw new InvalidParameterException("toDirectory", toDirectory);
+        }
+        if (tnColumns < 0)
+        {
+            throw new InvalidParameterException("tnColumns", tnColumns);
+        }
+        if (tnMemoryLimit < MIN_MEMORY_LIMIT)
+        {
+            throw new InvalidParameterException("tnMemoryLimit", tnMemoryLimit);
+        }
+        m_oDirectory = toDirectory;
+        m_nColumns = tnColumns;
+        m_nMemoryLimit = tnMemoryLimit;
+        m_nTileSize = (int)Math.min(tnMemoryLimit / 2, Integer.MAX_VALUE);
+        m_oTiles = new karyon.collections.List<Tile>();
+    }
+
+    /**
+     * Creates a disk backed copy of the matrix
+     * @param toMatrix the matrix to copy
+     * @param toDirectory the directory to store the tiles in
+     * @param tnMemoryLimit the number of bytes of tile data which may be resident at once
+     * @return the disk backed matrix
+     * @throws IOException if the tiles could not be written
+     */
+    public static DiskBackedSparseDoubleMatrix create(SparseDoubleMatrix toMatrix, File toDirectory, long tnMemoryLimit)
+            throws IOException
+    {
+        DiskBackedSparseDoubleMatrix loMatrix = new DiskBackedSparseDoubleMatrix(toDirectory, toMatrix.getColumnCount(), tnMemoryLimit);
+        for (int lnRow = 0, lnRows = toMatrix.getRowCount(); lnRow < lnRows; lnRow++)
+        {
+            int lnStart = toMatrix.getRowStart(lnRow);
+            int lnEnd = toMatrix.getRowEnd(lnRow);
+            ByteBuffer loBuffer = loMatrix.reserveRow(lnEnd - lnStart);
+            for (int i=lnStart; i<lnEnd; i++)
+            {
+                loBuffer.putInt(toMatrix.getColumnIndex(i));
+            }
+            for (int i=lnStart; i<lnEnd; i++)
+            {
+                loBuffer.putDouble(toMatrix.getValue(i));
+            }
+        }
+        loMatrix.flush();
+        return loMatrix;
+    }
+
+    /**
+     * Gets the number of rows in the matrix
+     * @return the number of rows
+     */
+    public synchronized int getRowCount()
+    {
+        return m_nRows;
+    }
+
+    /**
+     * Gets the number of columns in the matrix
+     * @return the number of columns
+     */
+    public int getColumnCount()
+    {
+        return m_nColumns;
+    }
+
+    /**
+     * Gets the number of concrete values stored in the matrix
+     * @return the number of concrete values
+     */
+    public synchronized long getNonZeroCount()
+    {
+        return m_nNonZeroCount;
+    }
+
+    /**
+     * Gets the number of bytes of tile data which may be resident at once
+     * @return the memory limit in bytes
+     */
+    public long getMemoryLimit()
+    {
+        return m_nMemoryLimit;
+    }
+
+    /**
+     * Gets the number of tiles which have been written to disk
+     * @return the number of tiles
+     */
+    public synchronized int getTileCount()
+    {
+        return m_oTiles.size();
+    }
+
+    /**
+     * Appends a row to the end of the matrix
+     * @param taColumns the columns of the values in the row, in ascending order
+     * @param taValues the values in the row
+     * @param tnCount the number of values in the row
+     * @throws IOException if the current tile is full and could not be written
+     */
+    public synchronized void appendRow(int[] taColumns, double[] taValues, int tnCount)
+            throws IOException
+    {
+        if (tnCount < 0 || taColumns == null || taValues == null || taColumns.length < tnCount || taValues.length < tnCount)
+        {
+            throw new InvalidParameterException("tnCount", tnCount);
+        }
+        for (int i=0; i<tnCount; i++)
+        {
+            if (taColumns[i] < 0 || taColumns[i] >= m_nColumns || (i > 0 && taColumns[i] <= taColumns[i - 1]))
+            {
+                throw new InvalidParameterException("taColumns", taColumns);
+            }
+        }
+        ByteBuffer loBuffer = reserveRow(tnCount);
+        for (int i=0; i<tnCount; i++)
+        {
+            loBuffer.putInt(taColumns[i]);
+        }
+        for (int i=0; i<tnCount; i++)
+        {
+            loBuffer.putDouble(taValues[i]);
+        }
+    }
+
+    /**
+     * Writes any rows which have been appended but not yet written to disk
+     * @throws IOException if the tile could not be written
+     */
+    public synchronized void flush()
+            throws IOException
+    {
+        if (m_nPendingFirstRow == m_nRows)
+        {
+            return;
+        }
+        ByteBuffer loBuffer = getBuffers()[0];
+        loBuffer.flip();
+        // Each tile gets a new uniquely named file so matrices sharing a directory,
+        // or files left from an earlier run, are never overwritten
+        File loFile = File.createTempFile("tile-", ".bin", m_oDirectory);
+        RandomAccessFile loTileFile = new RandomAccessFile(loFile, "rw");
+        try
+        {
+            FileChannel loChannel = loTileFile.getChannel();
+            while (loBuffer.hasRemaining())
+            {
+                loChannel.write(loBuffer);
+            }
+        }
+        finally
+        {
+            loTileFile.close();
+        }
+        m_oTiles.add(new Tile(loFile, m_nPendingFirstRow, loBuffer.limit()));
+        m_nPendingFirstRow = m_nRows;
+        loBuffer.clear();
+    }
+
+    /**
+     * Deletes the tiles from disk and empties the matrix
+     */
+    public synchronized void delete()
+    {
+        for (Tile loTile : m_oTiles)
+        {
+            loTile.m_oFile.delete();
+        }
+        m_oTiles.clear();
+        m_nRows = 0;
+        m_nNonZeroCount = 0;
+        m_nPendingFirstRow = 0;
+        m_aBuffers = null;
+        if (m_oReader != null)
+        {
+            m_oReader.shutdown();
+            m_oReader = null;
+        }
+    }
+
+    /**
+     * Releases the matrix, deleting the tiles from disk and stopping the read ahead thread
+     */
+    @Override
+    public void close()
+    {
+        delete();
+    }
+
+    /**
+     * Multiplies this matrix by the column vector
+     * @param taVector the vector to multiply by, one value per column of this matrix
+     * @return the result, one value per row of this matrix
+     * @throws IOException if the tiles could not be read
+     */
+    public synchronized double[] multiply(final double[] taVector)
+            throws IOException
+    {
+        if (taVector == null || taVector.length != m_nColumns)
+        {
+            throw new InvalidParameterException("taVector", taVector);
+        }
+        final double[] laResult = new double[m_nRows];
+        streamTiles(new TileVisitor()
+        {
+            @Override
+            public void visit(ByteBuffer toBuffer, int tnFirstRow)
+            {
+                int lnRow = tnFirstRow;
+                int lnPosition = 0;
+                int lnLimit = toBuffer.limit();
+                while (lnPosition < lnLimit)
+                {
+                    int lnCount = toBuffer.getInt(lnPosition);
+                    int lnColumns = lnPosition + 4;
+                    int lnValues = lnColumns + 4 * lnCount;
+                    double lnSum = 0;
+                    for (int i=0; i<lnCount; i++)
+                    {
+                        lnSum += toBuffer.getDouble(lnValues + 8 * i) * taVector[toBuffer.getInt(lnColumns + 4 * i)];
+                    }
+                    laResult[lnRow++] = lnSum;
+                    lnPosition = lnValues + 8 * lnCount;
+                }
+            }
+        });
+        return laResult;
+    }
+
+    /**
+     * Multiplies this matrix by the dense matrix
+     * @param taMatrix the dense matrix to multiply by, one row per column of this matrix
+     * @return the dense result, one row per row of this matrix
+     * @throws IOException if the tiles could not be read
+     */
+    public synchronized double[][] multiply(final double[][] taMatrix)
+            throws IOException
+    {
+        final int lnWidth = SparseDoubleMatrix.getDenseWidth(taMatrix, m_nColumns);
+        final double[][] laResult = new double[m_nRows][lnWidth];
+        streamTiles(new TileVisitor()
+        {
+            @Override
+            public void visit(ByteBuffer toBuffer, int tnFirstRow)
+            {
+                int lnRow = tnFirstRow;
+                int lnPosition = 0;
+                int lnLimit = toBuffer.limit();
+                while (lnPosition < lnLimit)
+                {
+                    int lnCount = toBuffer.getInt(lnPosition);
+                    int lnColumns = lnPosition + 4;
+                    int lnValues = lnColumns + 4 * lnCount;
+                    double[] laResultRow = laResult[lnRow++];
+                    for (int i=0; i<lnCount; i++)
+                    {
+                        double lnValue = toBuffer.getDouble(lnValues + 8 * i);
+                        double[] laRow = taMatrix[toBuffer.getInt(lnColumns + 4 * i)];
+                        for (int j=0; j<lnWidth; j++)
+                        {
+                            laResultRow[j] += lnValue * laRow[j];
+                        }
+                    }
+                    lnPosition = lnValues + 8 * lnCount;
+                }
+            }
+        });
+        return laResult;
+    }
+
+    /**
+     * Gets the number of bytes read from disk by the last multiplication
+     * @return the number of bytes read
+     */
+    public synchronized long getLastBytesRead()
+    {
+        return m_nLastBytesRead;
+    }
+
+    /**
+     * Gets the time taken by the last multiplication
+     * @return the elapsed time in nanoseconds
+     */
+    public synchronized long getLastElapsedNanos()
+    {
+        return m_nLastElapsedNanos;
+    }
+
+    /**
+     * Gets the throughput of the last multiplication, the tile data
+     * streamed from disk divided by the total time taken
+     * @return the throughput in MB/s, or 0 if nothing has been multiplied
+     */
+    public synchronized double getLastThroughput()
+    {
+        return m_nLastElapsedNanos == 0 ? 0 : (m_nLastBytesRead / BYTES_PER_MB) / (m_nLastElapsedNanos / 1e9);
+    }
+
+    /**
+     * Gets the two tile buffers, allocating them on first use
+     * @return the tile buffers
+     */
+    private ByteBuffer[] getBuffers()
+    {
+        if (m_aBuffers == null)
+        {
+            m_aBuffers = new ByteBuffer[]{
+                    ByteBuffer.allocateDirect(m_nTileSize).order(ByteOrder.LITTLE_ENDIAN),
+                    ByteBuffer.allocateDirect(m_nTileSize).order(ByteOrder.LITTLE_ENDIAN)};
+        }
+        return m_aBuffers;
+    }
+
+    /**
+     * Gets the executor which reads tiles ahead, creating it on first use.
+     * The thread is a daemon so a matrix which is not closed does not keep
+     * the application running.
+     * @return the read ahead executor
+     */
+    private ExecutorService getReader()
+    {
+        if (m_oReader == null)
+        {
+            m_oReader = Executors.newSingleThreadExecutor(new ThreadFactory()
+            {
+                @Override
+                public Thread newThread(Runnable toRunnable)
+                {
+                    Thread loThread = new Thread(toRunnable, "DiskBackedSparseDoubleMatrix-reader");
+                    loThread.setDaemon(true);
+                    return loThread;
+                }
+            });
+        }
+        return m_oReader;
+    }
+
+    /**
+     * Makes space for a new row in the current tile, writing the tile if it is full.
+     * The first buffer is used to build the tile as it is free whenever no
+     * multiplication is running.
+     * @param tnCount the number of values in the row
+     * @return the buffer positioned to receive the column indices and then the values of the row
+     * @throws IOException if the current tile could not be written
+     */
+    private synchronized ByteBuffer reserveRow(int tnCount)
+            throws IOException
+    {
+        long lnBytes = 4 + 12L * tnCount;
+        if (lnBytes > m_nTileSize)
+        {
+            throw new InvalidParameterException("tnCount", tnCount);
+        }
+        if (m_nRows == Integer.MAX_VALUE)
+        {
+            throw new InvalidParameterException("tnCount", tnCount);
+        }
+        ByteBuffer loBuffer = getBuffers()[0];
+        if (loBuffer.remaining() < lnBytes)
+        {
+            flush();
+        }
+        loBuffer.putInt(tnCount);
+        m_nRows++;
+        m_nNonZeroCount += tnCount;
+        return loBuffer;
+    }
+
+    /**
+     * Reads each tile in order and passes it to the visitor.  The next tile
+     * is read on a background thread while the visitor processes the current one.
+     * @param toVisitor the visitor to process the tiles
+     * @throws IOException if a tile could not be read
+     */
+    private void streamTiles(TileVisitor toVisitor)
+            throws IOException
+    {
+        flush();
+        ByteBuffer[] laBuffers = getBuffers();
+        long lnBytes = 0;
+        long lnStart = System.nanoTime();
+        ExecutorService loReader = getReader();
+        Future<ByteBuffer> loNext = null;
+        try
+        {
+            int lnTiles = m_oTiles.size();
+            if (lnTiles > 0)
+            {
+                loNext = loReader.submit(createReadTask(m_oTiles.get(0), laBuffers[0]));
+            }
+            for (int i=0; i<lnTiles; i++)
+            {
+                ByteBuffer loCurrent = loNext.get();
+                loNext = i + 1 < lnTiles ? loReader.submit(createReadTask(m_oTiles.get(i + 1), laBuffers[(i + 1) % 2])) : null;
+                toVisitor.visit(loCurrent, m_oTiles.get(i).m_nFirstRow);
+                lnBytes += loCurrent.limit();
+            }
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading tiles");
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+            {
+                throw (IOException)ex.getCause();
+            }
+            throw new IOException(ex.getCause().toString());
+        }
+        finally
+        {
+            // Make sure no read is still filling a buffer before it can be reused
+            waitFor(loNext);
+            laBuffers[0].clear();
+            laBuffers[1].clear();
+        }
+        m_nLastBytesRead = lnBytes;
+        m_nLastElapsedNanos = System.nanoTime() - lnStart;
+    }
+
+    /**
+     * Waits for an outstanding read to finish, ignoring its result
+     * @param toRead the read to wait for, or null
+     */
+    private static void waitFor(Future<ByteBuffer> toRead)
+    {
+        if (toRead == null)
+        {
+            return;
+        }
+        boolean llInterrupted = false;
+        while (true)
+        {
+            try
+            {
+                toRead.get();
+                break;
+            }
+            catch (InterruptedException ex)
+            {
+                llInterrupted = true;
+            }
+            catch (ExecutionException ex)
+            {
+                break;
+            }
+        }
+        if (llInterrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Creates a task that reads the tile into the buffer
+     * @param toTile the tile to read
+     * @param toBuffer the buffer to read into
+     * @return the task, which returns the buffer ready to be read
+     */
+    private Callable<ByteBuffer> createReadTask(final Tile toTile, final ByteBuffer toBuffer)
+    {
+        return new Callable<ByteBuffer>()
+        {
+            @Override
+            public ByteBuffer call() throws Exception
+            {
+                toBuffer.clear();
+                toBuffer.limit(toTile.m_nBytes);
+                RandomAccessFile loFile = new RandomAccessFile(toTile.m_oFile, "r");
+                try
+                {
+                    FileChannel loChannel = loFile.getChannel();
+                    while (toBuffer.hasRemaining())
+                    {
+                        if (loChannel.read(toBuffer) < 0)
+                        {
+                            throw new IOException("Tile " + toTile.m_oFile + " is truncated");
+                        }
+                    }
+                }
+                finally
+                {
+                    loFile.close();
+                }
+                toBuffer.flip();
+                return toBuffer;
+            }
+        };
+    }
+}
@@ -1,8 +1,227 @@
 package karyon.math.collections;
 
+import karyon.exceptions.InvalidParameterException;
+
 /**
  * Sparse Double Matrix is a collection of doubles organised as a sparse matrix
+ *
+ * The matrix is stored in compressed sparse row (CSR) form:
+ * the values of row r are held in positions getRowStart(r) to getRowEnd(r) - 1
+ * of the value and column index arrays, ordered by column.
  */
 public class SparseDoubleMatrix
+    extends karyon.Object
 {
+    private int m_nRows;
+    private int m_nColumns;
+    private int[] m_aRowPointers;
+    private int[] m_aColumnIndices;
+    private double[] m_aValues;
+
+    /**
+     * Creates a new empty matrix with the specified dimensions
+     * @param tnRows the number of rows in the matrix
+     * @param tnColumns the number of columns in the matrix
+     */
+    public SparseDoubleMatrix(int tnRows, int tnColumns)
+    {
+        this(tnRows, tnColumns, new int[tnRows < 0 ? 1 : tnRows + 1], new int[0], new double[0]);
+    }
+
+    /**
+     * Creates a matrix from compressed sparse row data.  The arrays are used
+     * directly, not copied.
+     * @param tnRows the number of rows in the matrix
+     * @param tnColumns the number of columns in the matrix
+     * @param taRowPointers the start of each row in the column and value arrays, tnRows + 1 entries
+     * @param taColumnIndices the column of each value, sorted within each row
+     * @param taValues the values
+     */
+    public SparseDoubleMatrix(int tnRows, int tnColumns, int[] taRowPointers, int[] taColumnIndices, double[] taValues)
+    {
+        if (tnRows < 0)
+        {
+            throw new InvalidParameterException("tnRows", tnRows);
+        }
+        if (tnColumns < 0)
+        {
+            throw new InvalidParameterException("tnColumns", tnColumns);
+        }
+        if (taRowPointers == null || taRowPointers.length != tnRows + 1 || taRowPointers[0] != 0)
+        {
+            throw new InvalidParameterException("taRowPointers", taRowPointers);
+        }
+        if (taColumnIndices == null || taColumnIndices.length < taRowPointers[tnRows])
+        {
+            throw new InvalidParameterException("taColumnIndices", taColumnIndices);
+        }
+        if (taValues == null || taValues.length < taRowPointers[tnRows])
+        {
+            throw new InvalidParameterException("taValues", taValues);
+        }
+        m_nRows = tnRows;
+        m_nColumns = tnColumns;
+        m_aRowPointers = taRowPointers;
+        m_aColumnIndices = taColumnIndices;
+        m_aValues = taValues;
+    }
+
+    /**
+     * Gets the number of rows in the matrix
+     * @return the number of rows
+     */
+    public int getRowCount()
+    {
+        return m_nRows;
+    }
+
+    /**
+     * Gets the number of columns in the matrix
+     * @return the number of columns
+     */
+    public int getColumnCount()
+    {
+        return m_nColumns;
+    }
+
+    /**
+     * Gets the number of concrete values stored in the matrix
+     * @return the number of concrete values
+     */
+    public int getNonZeroCount()
+    {
+        return m_aRowPointers[m_nRows];
+    }
+
+    /**
+     * Gets the position of the first value of the row
+     * @param tnRow the row
+     * @return the position of the first value of the row
+     */
+    public int getRowStart(int tnRow)
+    {
+        return m_aRowPointers[tnRow];
+    }
+
+    /**
+     * Gets the position after the last value of the row
+     * @param tnRow the row
+     * @return the position after the last value of the row
+     */
+    public int getRowEnd(int tnRow)
+    {
+        return m_aRowPointers[tnRow + 1];
+    }
+
+    /**
+     * Gets the column of the value at the specified position
+     * @param tnPosition the position, between getRowStart and getRowEnd of a row
+     * @return the column of the value
+     */
+    public int getColumnIndex(int tnPosition)
+    {
+        return m_aColumnIndices[tnPosition];
+    }
+
+    /**
+     * Gets the value at the specified position
+     * @param tnPosition the position, between getRowStart and getRowEnd of a row
+     * @return the value
+     */
+    public double getValue(int tnPosition)
+    {
+        return m_aValues[tnPosition];
+    }
+
+    /**
+     * Gets the value at the specified row and column
+     * @param tnRow the row of the value
+     * @param tnColumn the column of the value
+     * @return the value, or 0 if there is no concrete value at the location
+     */
+    public double getDouble(int tnRow, int tnColumn)
+    {
+        if (tnRow < 0 || tnRow >= m_nRows)
+        {
+            throw new InvalidParameterException("tnRow", tnRow);
+        }
+        if (tnColumn < 0 || tnColumn >= m_nColumns)
+        {
+            throw new InvalidParameterException("tnColumn", tnColumn);
+        }
+        int lnPosition = java.util.Arrays.binarySearch(m_aColumnIndices, m_aRowPointers[tnRow], m_aRowPointers[tnRow + 1], tnColumn);
+        return lnPosition >= 0 ? m_aValues[lnPosition] : 0;
+    }
+
+    /**
+     * Multiplies this matrix by the column vector
+     * @param taVector the vector to multiply by, one value per column of this matrix
+     * @return the result, one value per row of this matrix
+     */
+    public double[] multiply(double[] taVector)
+    {
+        if (taVector == null || taVector.length != m_nColumns)
+        {
+            throw new InvalidParameterException("taVector", taVector);
+        }
+        double[] laResult = new double[m_nRows];
+        for (int lnRow = 0; lnRow < m_nRows; lnRow++)
+        {
+            double lnSum = 0;
+            for (int i=m_aRowPointers[lnRow], lnEnd = m_aRowPointers[lnRow + 1]; i<lnEnd; i++)
+            {
+                lnSum += m_aValues[i] * taVector[m_aColumnIndices[i]];
+            }
+            laResult[lnRow] = lnSum;
+        }
+        return laResult;
+    }
+
+    /**
+     * Multiplies this matrix by the dense matrix
+     * @param taMatrix the dense matrix to multiply by, one row per column of this matrix
+     * @return the dense result, one row per row of this matrix
+     */
+    public double[][] multiply(double[][] taMatrix)
+    {
+        int lnWidth = getDenseWidth(taMatrix, m_nColumns);
+        double[][] laResult = new double[m_nRows][lnWidth];
+        for (int lnRow = 0; lnRow < m_nRows; lnRow++)
+        {
+            double[] laResultRow = laResult[lnRow];
+            for (int i=m_aRowPointers[lnRow], lnEnd = m_aRowPointers[lnRow + 1]; i<lnEnd; i++)
+            {
+                double lnValue = m_aValues[i];
+                double[] laRow = taMatrix[m_aColumnIndices[i]];
+                for (int j=0; j<lnWidth; j++)
+                {
+                    laResultRow[j] += lnValue * laRow[j];
+                }
+            }
+        }
+        return laResult;
+    }
+
+    /**
+     * Checks that the dense matrix is rectangular with the expected number of rows
+     * @param taMatrix the dense matrix to check
+     * @param tnRows the number of rows expected
+     * @return the number of columns of the dense matrix
+     */
+    static int getDenseWidth(double[][] taMatrix, int tnRows)
+    {
+        if (taMatrix == null || taMatrix.length != tnRows)
+        {
+            throw new InvalidParameterException("taMatrix", taMatrix);
+        }
+        int lnWidth = tnRows == 0 || taMatrix[0] == null ? 0 : taMatrix[0].length;
+        for (int i=0; i<tnRows; i++)
+        {
+            if (taMatrix[i] == null || taMatrix[i].length != lnWidth)
+            {
+                throw new InvalidParameterException("taMatrix", taMatrix);
+            }
+        }
+        return lnWidth;
+    }
 }
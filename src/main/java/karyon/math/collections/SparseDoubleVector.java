@@ -7,6 +7,7 @@ import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Sparse Double Vector is a collection of doubles organised as a single vector
@@ -46,6 +47,7 @@ public class SparseDoubleVector
         private int m_nItemIndex;
         private int m_nStartIndex;
         private int m_nEndIndex;
+        private double[] m_aSnapshotRun;
 
         /**
          * Creates a new ArrayMarker
@@ -76,6 +78,7 @@ public class SparseDoubleVector
          */
         public synchronized boolean add(double tnValue)
         {
+            m_aSnapshotRun = null;
             double[] laArray = getArray();
             laArray[(m_nEndIndex++ - m_nStartIndex) + m_nItemIndex] = tnValue;
             if (m_nEndIndex - m_nStartIndex + m_nItemIndex == laArray.length)
@@ -97,17 +100,13 @@ public class SparseDoubleVector
         }
 
         /**
-         * Appends the value at the specified index.  This will result
-         * in a shift of all values after tnIndex
-         * @param tnIndex the index to append at
-         * @param tnValue the value to add
+         * Checks if the index is held by this marker
+         * @param tnIndex the index to check
+         * @return true if tnIndex is between the start and end index of this marker
          */
-        public synchronized void add(long tnIndex, double tnValue)
+        public boolean contains(long tnIndex)
         {
-            int lnOffset = (int)(tnIndex - m_nStartIndex);
-            double[] laArray = getArray();
-            java.lang.System.arraycopy(laArray, lnOffset, laArray, lnOffset +1, laArray.length-lnOffset-1);
-            laArray[lnOffset]=tnValue;
+            return tnIndex >= m_nStartIndex && tnIndex < m_nEndIndex;
         }
 
         /**
@@ -117,28 +116,28 @@ public class SparseDoubleVector
          */
         public double get(long tnIndex)
         {
-            int lnOffset = (int)(tnIndex - m_nStartIndex);
-            double[] laArray = getArray();
-            return laArray.length > lnOffset ? laArray[lnOffset] : 0;
+            if (tnIndex < m_nStartIndex || tnIndex >= m_nEndIndex)
+            {
+                return 0;
+            }
+            return getArray()[m_nItemIndex + (int)(tnIndex - m_nStartIndex)];
         }
 
-        public double set(long tnIndex, double tnValue)
+        /**
+         * Updates a value held by this marker, indices outside of the marker
+         * are stored by SparseDoubleVector.insertDouble
+         * @param tnIndex the index to update, must be contained by this marker
+         * @param tnValue the new value
+         * @return the value that was replaced
+         */
+        public synchronized double set(long tnIndex, double tnValue)
         {
-            int lnOffset = (int)(tnIndex - m_nStartIndex);
+            m_aSnapshotRun = null;
+            int lnPosition = m_nItemIndex + (int)(tnIndex - m_nStartIndex);
             double[] laArray = getArray();
-            if (laArray.length > lnOffset)
-            {
-                // The offset exists
-                double lnReturn = laArray[lnOffset];
-                laArray[lnOffset] = tnValue;
-                return lnReturn;
-            }
-            else
-            {
-                // The offset does not exist
-                add(tnIndex, tnValue);
-                return 0;
-            }
+            double lnReturn = laArray[lnPosition];
+            laArray[lnPosition] = tnValue;
+            return lnReturn;
         }
 
         /**
@@ -148,8 +147,10 @@ public class SparseDoubleVector
          */
         public synchronized boolean add(double[] taValues)
         {
+            m_aSnapshotRun = null;
             double[] laArray = getArray();
-            if (laArray.length - m_nEndIndex <= taValues.length)
+            int lnPosition = m_nItemIndex + (m_nEndIndex - m_nStartIndex);
+            if (laArray.length - lnPosition <= taValues.length)
             {
                 // Need to resize the array
                 m_aData[m_nDataIndex] = java.util.Arrays.copyOf(laArray, (int)Math.ceil((laArray.length + taValues.length) / m_nFillFactor));
@@ -157,11 +158,240 @@ public class SparseDoubleVector
                 // TODO: When the array is too large (larger than max int) need to use multiple arrays
                 m_nCapacity = laArray.length;
             }
-            java.lang.System.arraycopy(taValues, 0, laArray, m_nEndIndex, taValues.length);
+            java.lang.System.arraycopy(taValues, 0, laArray, lnPosition, taValues.length);
             m_nEndIndex+=taValues.length;
             return true;
         }
 
+        /**
+         * Gets an immutable copy of the values of this marker, the copy is only
+         * made again after the marker has been modified
+         * @return the values of this marker
+         */
+        public synchronized double[] getSnapshotRun()
+        {
+            if (m_aSnapshotRun == null)
+            {
+                m_aSnapshotRun = java.util.Arrays.copyOfRange(getArray(), m_nItemIndex, m_nItemIndex + (m_nEndIndex - m_nStartIndex));
+            }
+            return m_aSnapshotRun;
+        }
+
+    }
+
+    /**
+     * A running sum using Kahan-Babuska (Neumaier) compensation so that
+     * values of very different magnitudes, and the removal of values
+     * through negative deltas, do not accumulate rounding error
+     */
+    private static class CompensatedSum
+    {
+        private double m_nSum;
+        private double m_nCompensation;
+
+        /**
+         * Adds the value to the running sum
+         * @param tnValue the value to add
+         */
+        public void add(double tnValue)
+        {
+            double lnSum = m_nSum + tnValue;
+            if (Math.abs(m_nSum) >= Math.abs(tnValue))
+            {
+                m_nCompensation += (m_nSum - lnSum) + tnValue;
+            }
+            else
+            {
+                m_nCompensation += (tnValue - lnSum) + m_nSum;
+            }
+            m_nSum = lnSum;
+        }
+
+        /**
+         * Gets the compensated value of the sum
+         * @return the current sum
+         */
+        public double getValue()
+        {
+            return m_nSum + m_nCompensation;
+        }
+    }
+
+    /**
+     * Aggregates over the concrete values of the vector which are updated
+     * in O(1) on each write.  Min and max can not be maintained in O(1) when
+     * the current extreme is overwritten, so they are marked as stale
+     * and recomputed the next time they are requested
+     */
+    private class Aggregates
+    {
+        private final CompensatedSum m_oSum = new CompensatedSum();
+        private final CompensatedSum m_oAbsoluteSum = new CompensatedSum();
+        private final CompensatedSum m_oSquareSum = new CompensatedSum();
+        private long m_nNonZeroCount;
+        private long m_nValueCount;
+        private double m_nMin = Double.NaN;
+        private double m_nMax = Double.NaN;
+        private boolean m_lExtremaValid = true;
+
+        /**
+         * Includes a new concrete value in the aggregates
+         * @param tnValue the value that was added to the vector
+         */
+        public synchronized void include(double tnValue)
+        {
+            m_oSum.add(tnValue);
+            m_oAbsoluteSum.add(Math.abs(tnValue));
+            m_oSquareSum.add(tnValue * tnValue);
+            if (tnValue != 0)
+            {
+                m_nNonZeroCount++;
+            }
+            m_nValueCount++;
+            if (m_lExtremaValid)
+            {
+                if (m_nValueCount == 1 || tnValue < m_nMin)
+                {
+                    m_nMin = tnValue;
+                }
+                if (m_nValueCount == 1 || tnValue > m_nMax)
+                {
+                    m_nMax = tnValue;
+                }
+            }
+        }
+
+        /**
+         * Updates the aggregates when a concrete value has been overwritten
+         * @param tnOldValue the value that was replaced
+         * @param tnNewValue the value that replaced it
+         */
+        public synchronized void replace(double tnOldValue, double tnNewValue)
+        {
+            m_oSum.add(tnNewValue);
+            m_oSum.add(-tnOldValue);
+            m_oAbsoluteSum.add(Math.abs(tnNewValue));
+            m_oAbsoluteSum.add(-Math.abs(tnOldValue));
+            m_oSquareSum.add(tnNewValue * tnNewValue);
+            m_oSquareSum.add(-(tnOldValue * tnOldValue));
+            if (tnOldValue != 0)
+            {
+                m_nNonZeroCount--;
+            }
+            if (tnNewValue != 0)
+            {
+                m_nNonZeroCount++;
+            }
+            if (m_lExtremaValid && tnOldValue != tnNewValue)
+            {
+                if (tnNewValue < m_nMin)
+                {
+                    m_nMin = tnNewValue;
+                }
+                else if (tnOldValue == m_nMin)
+                {
+                    m_lExtremaValid = false;
+                }
+                if (tnNewValue > m_nMax)
+                {
+                    m_nMax = tnNewValue;
+                }
+                else if (tnOldValue == m_nMax)
+                {
+                    m_lExtremaValid = false;
+                }
+            }
+        }
+
+        /**
+         * Rescans the vector to find the min and max if an overwrite has made them stale
+         */
+        private synchronized void ensureExtrema()
+        {
+            if (!m_lExtremaValid)
+            {
+                Aggregates loScan = scanAggregates();
+                m_nMin = loScan.m_nMin;
+                m_nMax = loScan.m_nMax;
+                m_lExtremaValid = true;
+            }
+        }
+
+        public synchronized double getSum()
+        {
+            return m_oSum.getValue();
+        }
+
+        public synchronized double getL1Norm()
+        {
+            return m_oAbsoluteSum.getValue();
+        }
+
+        public synchronized double getL2Norm()
+        {
+            // Guard against a tiny negative value left by removing squares
+            return Math.sqrt(Math.max(0, m_oSquareSum.getValue()));
+        }
+
+        public synchronized long getNonZeroCount()
+        {
+            return m_nNonZeroCount;
+        }
+
+        public synchronized double getMin()
+        {
+            ensureExtrema();
+            return m_nMin;
+        }
+
+        public synchronized double getMax()
+        {
+            ensureExtrema();
+            return m_nMax;
+        }
+    }
+
+    /**
+     * Tracks the progress of a bulk export so that the concrete values of
+     * a vector can be copied out in chunks.  A cursor is only valid for the
+     * vector it was first used with, and only while that vector is not
+     * structurally modified.
+     */
+    public static class Cursor
+    {
+        private int m_nMarker;
+        private int m_nOffset;
+        private long m_nExported;
+        private boolean m_lComplete;
+
+        /**
+         * Moves the cursor back to the start of the vector
+         */
+        public void reset()
+        {
+            m_nMarker = 0;
+            m_nOffset = 0;
+            m_nExported = 0;
+            m_lComplete = false;
+        }
+
+        /**
+         * Checks if every value has been exported
+         * @return true if there are no more values to export
+         */
+        public boolean isComplete()
+        {
+            return m_lComplete;
+        }
+
+        /**
+         * Gets the number of pairs exported so far
+         * @return the number of pairs exported
+         */
+        public long getExported()
+        {
+            return m_nExported;
+        }
     }
 
 
@@ -170,6 +400,8 @@ public class SparseDoubleVector
     private boolean m_lHorizontal;
     private double[][] m_aData;
     private karyon.collections.List<ArrayMarker> m_oMarkers;
+    private volatile Aggregates m_oAggregates;
+    private final AtomicReference<SparseDoubleVectorSnapshot> m_oSnapshot = new AtomicReference<SparseDoubleVectorSnapshot>();
 
 
     /**
@@ -223,11 +455,7 @@ public class SparseDoubleVector
     public SparseDoubleVector(double[] taData, boolean tlIsHorizontal)
     {
         this(taData.length == 0 ? 10 : (int)Math.ceil(taData.length / 0.75f), 0.75f, tlIsHorizontal);
-        m_aData = new double[1][m_nCapacity];
-        m_oMarkers = new karyon.collections.List<ArrayMarker>();
-        ArrayMarker loMarker = new ArrayMarker(0, 0, 0);
-        m_oMarkers.add(loMarker);
-        loMarker.add(taData);
+        m_oMarkers.get(0).add(taData);
     }
 
     /**
@@ -263,7 +491,13 @@ public class SparseDoubleVector
     public boolean addDouble(double tnDouble)
     {
         // Always add to the last marker
-        return m_oMarkers.get(m_oMarkers.size()-1).add(tnDouble);
+        boolean llReturn = m_oMarkers.get(m_oMarkers.size()-1).add(tnDouble);
+        Aggregates loAggregates = m_oAggregates;
+        if (loAggregates != null)
+        {
+            loAggregates.include(tnDouble);
+        }
+        return llReturn;
     }
 
     /**
@@ -321,7 +555,504 @@ public class SparseDoubleVector
      */
     public boolean addAllDouble(double[] taValues)
     {
-        return m_oMarkers.get(m_oMarkers.size()-1).add(taValues);
+        boolean llReturn = m_oMarkers.get(m_oMarkers.size()-1).add(taValues);
+        Aggregates loAggregates = m_oAggregates;
+        if (loAggregates != null)
+        {
+            for (int i=0; i<taValues.length; i++)
+            {
+                loAggregates.include(taValues[i]);
+            }
+        }
+        return llReturn;
+    }
+
+    /**
+     * Turns on or off the tracking of aggregates.  When tracking is on the sum, norms,
+     * min, max and non zero count are updated on each write so reading them is O(1)
+     * (min and max are recomputed lazily if the current extreme is overwritten).
+     * When tracking is off each aggregate is computed with a full scan of the vector.
+     * Turning tracking on performs a single scan to initialise the aggregates.
+     * @param tlTrack true to track aggregates, false to stop tracking
+     */
+    public synchronized void setTrackAggregates(boolean tlTrack)
+    {
+        if (tlTrack && m_oAggregates == null)
+        {
+            m_oAggregates = scanAggregates();
+        }
+        else if (!tlTrack)
+        {
+            m_oAggregates = null;
+        }
+    }
+
+    /**
+     * Checks if aggregates are being maintained as the vector is updated
+     * @return true if the aggregates are being tracked
+     */
+    public boolean isTrackingAggregates()
+    {
+        return m_oAggregates != null;
+    }
+
+    /**
+     * Gets the tracked aggregates, or a freshly scanned copy if aggregates are not tracked
+     * @return the aggregates for this vector
+     */
+    private Aggregates getAggregates()
+    {
+        Aggregates loAggregates = m_oAggregates;
+        return loAggregates != null ? loAggregates : scanAggregates();
+    }
+
+    /**
+     * Computes the aggregates by scanning all of the concrete values in the vector
+     * @return the newly computed aggregates
+     */
+    private Aggregates scanAggregates()
+    {
+        Aggregates loAggregates = new Aggregates();
+        for (int i=0, lnMarkers = m_oMarkers.size(); i<lnMarkers; i++)
+        {
+            ArrayMarker loMarker = m_oMarkers.get(i);
+            double[] laArray = loMarker.getArray();
+            int lnLength = loMarker.m_nEndIndex - loMarker.m_nStartIndex;
+            for (int j=0; j<lnLength; j++)
+            {
+                loAggregates.include(laArray[loMarker.m_nItemIndex + j]);
+            }
+        }
+        return loAggregates;
+    }
+
+    /**
+     * Gets the sum of the values in the vector, using compensated summation
+     * @return the sum of the values
+     */
+    public double getSum()
+    {
+        return getAggregates().getSum();
+    }
+
+    /**
+     * Gets the L1 (Manhattan) norm of the vector, the sum of the absolute values
+     * @return the L1 norm
+     */
+    public double getL1Norm()
+    {
+        return getAggregates().getL1Norm();
+    }
+
+    /**
+     * Gets the L2 (Euclidean) norm of the vector
+     * @return the L2 norm
+     */
+    public double getL2Norm()
+    {
+        return getAggregates().getL2Norm();
+    }
+
+    /**
+     * Gets the smallest concrete value in the vector
+     * @return the smallest value, or NaN if there are no concrete values
+     */
+    public double getMin()
+    {
+        return getAggregates().getMin();
+    }
+
+    /**
+     * Gets the largest concrete value in the vector
+     * @return the largest value, or NaN if there are no concrete values
+     */
+    public double getMax()
+    {
+        return getAggregates().getMax();
+    }
+
+    /**
+     * Gets the number of values in the vector that are not zero
+     * @return the number of non zero values
+     */
+    public long getNonZeroCount()
+    {
+        return getAggregates().getNonZeroCount();
+    }
+
+    /**
+     * Calculates the dot product of this vector and toVector.  Only the concrete
+     * values of this vector are visited.
+     * @param toVector the vector to multiply with
+     * @return the dot product of the two vectors
+     */
+    public double dot(SparseDoubleVector toVector)
+    {
+        CompensatedSum loSum = new CompensatedSum();
+        for (int i=0, lnMarkers = m_oMarkers.size(); i<lnMarkers; i++)
+        {
+            ArrayMarker loMarker = m_oMarkers.get(i);
+            double[] laArray = loMarker.getArray();
+            int lnLength = loMarker.m_nEndIndex - loMarker.m_nStartIndex;
+            for (int j=0; j<lnLength; j++)
+            {
+                double lnValue = laArray[loMarker.m_nItemIndex + j];
+                if (lnValue != 0)
+                {
+                    loSum.add(lnValue * toVector.getDouble(loMarker.m_nStartIndex + j));
+                }
+            }
+        }
+        return loSum.getValue();
+    }
+
+    /**
+     * Calculates the cosine similarity between this vector and toVector.  When both
+     * vectors are tracking aggregates this only requires a single dot product.
+     * @param toVector the vector to compare to
+     * @return the cosine similarity, or 0 if either vector has no magnitude
+     */
+    public double cosineSimilarity(SparseDoubleVector toVector)
+    {
+        double lnNorms = getL2Norm() * toVector.getL2Norm();
+        return lnNorms == 0 ? 0 : dot(toVector) / lnNorms;
+    }
+
+    /**
+     * Copies the next chunk of non zero values and their indices into the buffers
+     * @param toCursor the cursor recording the progress of the export
+     * @param taIndices receives the indices of the values
+     * @param taValues receives the values
+     * @param tnOffset the position in the arrays to start copying to
+     * @param tnLength the maximum number of pairs to copy
+     * @return the number of pairs copied, 0 once every value has been exported
+     */
+    public int exportNonZeros(Cursor toCursor, long[] taIndices, double[] taValues, int tnOffset, int tnLength)
+    {
+        checkBulkParameters(taIndices == null ? -1 : taIndices.length, taValues == null ? -1 : taValues.length, tnOffset, tnLength);
+        return exportNonZeros(toCursor, taIndices, null, tnOffset, taValues, null, tnLength);
+    }
+
+    /**
+     * Copies the next chunk of non zero values and their indices into the buffers
+     * @param toCursor the cursor recording the progress of the export
+     * @param taIndices receives the indices of the values
+     * @param taValues receives the values
+     * @param tnOffset the position in the arrays to start copying to
+     * @param tnLength the maximum number of pairs to copy
+     * @return the number of pairs copied, 0 once every value has been exported
+     */
+    public int exportNonZeros(Cursor toCursor, int[] taIndices, double[] taValues, int tnOffset, int tnLength)
+    {
+        checkBulkParameters(taIndices == null ? -1 : taIndices.length, taValues == null ? -1 : taValues.length, tnOffset, tnLength);
+        return exportNonZeros(toCursor, null, taIndices, tnOffset, taValues, null, tnLength);
+    }
+
+    /**
+     * Copies the next chunk of non zero values into the buffer, starting at its position,
+     * and their indices into the array.  As many pairs are copied as fit in both.
+     * @param toCursor the cursor recording the progress of the export
+     * @param taIndices receives the indices of the values
+     * @param tnOffset the position in the index array to start copying to
+     * @param toValues receives the values
+     * @return the number of pairs copied, 0 once every value has been exported
+     */
+    public int exportNonZeros(Cursor toCursor, long[] taIndices, int tnOffset, java.nio.DoubleBuffer toValues)
+    {
+        int lnLength = toValues == null || taIndices == null ? 0 : Math.min(taIndices.length - tnOffset, toValues.remaining());
+        checkBulkParameters(taIndices == null ? -1 : taIndices.length, toValues == null ? -1 : Integer.MAX_VALUE, tnOffset, lnLength);
+        return exportNonZeros(toCursor, taIndices, null, tnOffset, null, toValues, lnLength);
+    }
+
+    /**
+     * Copies the next chunk of non zero values into the buffer, starting at its position,
+     * and their indices into the array.  As many pairs are copied as fit in both.
+     * @param toCursor the cursor recording the progress of the export
+     * @param taIndices receives the indices of the values
+     * @param tnOffset the position in the index array to start copying to
+     * @param toValues receives the values
+     * @return the number of pairs copied, 0 once every value has been exported
+     */
+    public int exportNonZeros(Cursor toCursor, int[] taIndices, int tnOffset, java.nio.DoubleBuffer toValues)
+    {
+        int lnLength = toValues == null || taIndices == null ? 0 : Math.min(taIndices.length - tnOffset, toValues.remaining());
+        checkBulkParameters(taIndices == null ? -1 : taIndices.length, toValues == null ? -1 : Integer.MAX_VALUE, tnOffset, lnLength);
+        return exportNonZeros(toCursor, null, taIndices, tnOffset, null, toValues, lnLength);
+    }
+
+    /**
+     * Appends the pairs to the end of the vector.  Runs of consecutive indices are
+     * stored together and a new marker is started at each gap, the storage is
+     * grown at most once.
+     * @param taIndices the indices of the values, ascending and not less than size()
+     * @param taValues the values
+     * @param tnOffset the position in the arrays to start copying from
+     * @param tnLength the number of pairs to copy
+     * @return true if the vector changed as a result of this call
+     */
+    public boolean importNonZeros(long[] taIndices, double[] taValues, int tnOffset, int tnLength)
+    {
+        checkBulkParameters(taIndices == null ? -1 : taIndices.length, taValues == null ? -1 : taValues.length, tnOffset, tnLength);
+        return importNonZeros(taIndices, null, tnOffset, taValues, null, tnLength);
+    }
+
+    /**
+     * Appends the pairs to the end of the vector.  Runs of consecutive indices are
+     * stored together and a new marker is started at each gap, the storage is
+     * grown at most once.
+     * @param taIndices the indices of the values, ascending and not less than size()
+     * @param taValues the values
+     * @param tnOffset the position in the arrays to start copying from
+     * @param tnLength the number of pairs to copy
+     * @return true if the vector changed as a result of this call
+     */
+    public boolean importNonZeros(int[] taIndices, double[] taValues, int tnOffset, int tnLength)
+    {
+        checkBulkParameters(taIndices == null ? -1 : taIndices.length, taValues == null ? -1 : taValues.length, tnOffset, tnLength);
+        return importNonZeros(null, taIndices, tnOffset, taValues, null, tnLength);
+    }
+
+    /**
+     * Appends the pairs to the end of the vector, reading the values from the
+     * position of the buffer.  As many pairs are copied as are available in both.
+     * @param taIndices the indices of the values, ascending and not less than size()
+     * @param tnOffset the position in the index array to start copying from
+     * @param toValues the values
+     * @return true if the vector changed as a result of this call
+     */
+    public boolean importNonZeros(long[] taIndices, int tnOffset, java.nio.DoubleBuffer toValues)
+    {
+        int lnLength = toValues == null || taIndices == null ? 0 : Math.min(taIndices.length - tnOffset, toValues.remaining());
+        checkBulkParameters(taIndices == null ? -1 : taIndices.length, toValues == null ? -1 : Integer.MAX_VALUE, tnOffset, lnLength);
+        return importNonZeros(taIndices, null, tnOffset, null, toValues, lnLength);
+    }
+
+    /**
+     * Appends the pairs to the end of the vector, reading the values from the
+     * position of the buffer.  As many pairs are copied as are available in both.
+     * @param taIndices the indices of the values, ascending and not less than size()
+     * @param tnOffset the position in the index array to start copying from
+     * @param toValues the values
+     * @return true if the vector changed as a result of this call
+     */
+    public boolean importNonZeros(int[] taIndices, int tnOffset, java.nio.DoubleBuffer toValues)
+    {
+        int lnLength = toValues == null || taIndices == null ? 0 : Math.min(taIndices.length - tnOffset, toValues.remaining());
+        checkBulkParameters(taIndices == null ? -1 : taIndices.length, toValues == null ? -1 : Integer.MAX_VALUE, tnOffset, lnLength);
+        return importNonZeros(null, taIndices, tnOffset, null, toValues, lnLength);
+    }
+
+    /**
+     * Validates the parameters of a bulk export or import
+     * @param tnIndicesLength the length of the index array, -1 if it is null
+     * @param tnValuesLength the length of the value array, -1 if it is null
+     * @param tnOffset the position in the arrays to start at
+     * @param tnLength the number of pairs to copy
+     */
+    private void checkBulkParameters(int tnIndicesLength, int tnValuesLength, int tnOffset, int tnLength)
+    {
+        if (tnIndicesLength < 0)
+        {
+            throw new InvalidParameterException("taIndices", null);
+        }
+        if (tnValuesLength < 0)
+        {
+            throw new InvalidParameterException("taValues", null);
+        }
+        if (tnOffset < 0 || tnOffset > tnIndicesLength)
+        {
+            throw new InvalidParameterException("tnOffset", tnOffset);
+        }
+        if (tnLength < 0 || tnLength > tnIndicesLength - tnOffset || tnLength > tnValuesLength - tnOffset)
+        {
+            throw new InvalidParameterException("tnLength", tnLength);
+        }
+    }
+
+    /**
+     * Copies the next chunk of non zero values into exactly one of the index arrays
+     * and exactly one of the value array or buffer
+     * @param toCursor the cursor recording the progress of the export
+     * @param taLongIndices receives the indices, or null
+     * @param taIntIndices receives the indices if taLongIndices is null
+     * @param tnOffset the position in the arrays to start copying to
+     * @param taValues receives the values, or null
+     * @param toValues receives the values if taValues is null
+     * @param tnLength the maximum number of pairs to copy
+     * @return the number of pairs copied
+     */
+    private int exportNonZeros(Cursor toCursor, long[] taLongIndices, int[] taIntIndices, int tnOffset, double[] taValues, java.nio.DoubleBuffer toValues, int tnLength)
+    {
+        if (toCursor == null)
+        {
+            throw new InvalidParameterException("toCursor", null);
+        }
+        int lnCopied = 0;
+        int lnMarkers = m_oMarkers.size();
+        while (lnCopied < tnLength && toCursor.m_nMarker < lnMarkers)
+        {
+            ArrayMarker loMarker = m_oMarkers.get(toCursor.m_nMarker);
+            double[] laArray = loMarker.getArray();
+            int lnLength = loMarker.m_nEndIndex - loMarker.m_nStartIndex;
+            int lnOffset = toCursor.m_nOffset;
+            for (; lnOffset < lnLength && lnCopied < tnLength; lnOffset++)
+            {
+                double lnValue = laArray[loMarker.m_nItemIndex + lnOffset];
+                if (lnValue != 0)
+                {
+                    int lnIndex = loMarker.m_nStartIndex + lnOffset;
+                    if (taLongIndices != null)
+                    {
+                        taLongIndices[tnOffset + lnCopied] = lnIndex;
+                    }
+                    else
+                    {
+                        taIntIndices[tnOffset + lnCopied] = lnIndex;
+                    }
+                    if (taValues != null)
+                    {
+                        taValues[tnOffset + lnCopied] = lnValue;
+                    }
+                    else
+                    {
+                        toValues.put(lnValue);
+                    }
+                    lnCopied++;
+                }
+            }
+            if (lnOffset < lnLength)
+            {
+                toCursor.m_nOffset = lnOffset;
+            }
+            else
+            {
+                toCursor.m_nMarker++;
+                toCursor.m_nOffset = 0;
+            }
+        }
+        toCursor.m_nExported += lnCopied;
+        toCursor.m_lComplete = toCursor.m_nMarker >= lnMarkers;
+        return lnCopied;
+    }
+
+    /**
+     * Appends pairs read from exactly one of the index arrays and exactly one of
+     * the value array or buffer
+     * @param taLongIndices the indices, or null
+     * @param taIntIndices the indices if taLongIndices is null
+     * @param tnOffset the position in the arrays to start copying from
+     * @param taValues the values, or null
+     * @param toValues the values if taValues is null
+     * @param tnLength the number of pairs to copy
+     * @return true if the vector changed as a result of this call
+     */
+    private synchronized boolean importNonZeros(long[] taLongIndices, int[] taIntIndices, int tnOffset, double[] taValues, java.nio.DoubleBuffer toValues, int tnLength)
+    {
+        if (tnLength == 0)
+        {
+            return false;
+        }
+
+        // Validate the indices before anything is changed
+        long lnPrevious = (long)size() - 1;
+        for (int i=0; i<tnLength; i++)
+        {
+            long lnIndex = taLongIndices != null ? taLongIndices[tnOffset + i] : taIntIndices[tnOffset + i];
+            if (lnIndex <= lnPrevious || lnIndex >= Integer.MAX_VALUE)
+            {
+                throw new InvalidParameterException("taIndices", lnIndex);
+            }
+            lnPrevious = lnIndex;
+        }
+
+        ArrayMarker loLast = m_oMarkers.get(m_oMarkers.size()-1);
+        synchronized (loLast)
+        {
+            ArrayMarker loMarker = loLast;
+            loLast.m_aSnapshotRun = null;
+            // Grow the storage once, always leaving a free slot for the next add
+            int lnPosition = loMarker.m_nItemIndex + (loMarker.m_nEndIndex - loMarker.m_nStartIndex);
+            double[] laArray = loMarker.getArray();
+            if ((long)lnPosition + tnLength >= laArray.length)
+            {
+                m_aData[loMarker.m_nDataIndex] = java.util.Arrays.copyOf(laArray, (int)Math.min(Integer.MAX_VALUE - 8, Math.ceil((lnPosition + tnLength + 1) / m_nFillFactor)));
+                laArray = loMarker.getArray();
+                m_nCapacity = laArray.length;
+            }
+
+            Aggregates loAggregates = m_oAggregates;
+            for (int i=0; i<tnLength; i++)
+            {
+                int lnIndex = (int)(taLongIndices != null ? taLongIndices[tnOffset + i] : taIntIndices[tnOffset + i]);
+                double lnValue = taValues != null ? taValues[tnOffset + i] : toValues.get();
+                if (lnIndex != loMarker.m_nEndIndex)
+                {
+                    // There is a gap so start a new run
+                    loMarker = new ArrayMarker(loMarker.m_nDataIndex, lnPosition, lnIndex);
+                    m_oMarkers.add(loMarker);
+                }
+                laArray[lnPosition++] = lnValue;
+                loMarker.m_nEndIndex++;
+                if (loAggregates != null)
+                {
+                    loAggregates.include(lnValue);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes an immutable snapshot of the vector and publishes it as the current snapshot.
+     * Only markers modified since the last snapshot are copied, all other runs are
+     * shared with the previous snapshot.  Each run is copied atomically with respect
+     * to updates of its marker, for a snapshot that is consistent across runs take it
+     * from the thread updating the vector.
+     * @return the new snapshot, or the current snapshot if nothing has changed
+     */
+    public synchronized SparseDoubleVectorSnapshot snapshot()
+    {
+        int lnMarkers = m_oMarkers.size();
+        int lnRuns = 0;
+        int[] laStarts = new int[lnMarkers];
+        double[][] laRuns = new double[lnMarkers][];
+        for (int i=0; i<lnMarkers; i++)
+        {
+            ArrayMarker loMarker = m_oMarkers.get(i);
+            double[] laRun = loMarker.getSnapshotRun();
+            if (laRun.length > 0)
+            {
+                laStarts[lnRuns] = loMarker.m_nStartIndex;
+                laRuns[lnRuns++] = laRun;
+            }
+        }
+        if (lnRuns < lnMarkers)
+        {
+            laStarts = java.util.Arrays.copyOf(laStarts, lnRuns);
+            laRuns = java.util.Arrays.copyOf(laRuns, lnRuns);
+        }
+
+        SparseDoubleVectorSnapshot loCurrent = m_oSnapshot.get();
+        if (loCurrent != null && loCurrent.hasRuns(laStarts, laRuns))
+        {
+            return loCurrent;
+        }
+        int lnSize = lnRuns == 0 ? 0 : laStarts[lnRuns - 1] + laRuns[lnRuns - 1].length;
+        SparseDoubleVectorSnapshot loSnapshot = new SparseDoubleVectorSnapshot(m_lHorizontal, lnSize, laStarts, laRuns);
+        m_oSnapshot.set(loSnapshot);
+        return loSnapshot;
+    }
+
+    /**
+     * Gets the most recently published snapshot without locking.  Nothing is
+     * published until the writer first calls snapshot(), so vectors which are
+     * never read this way do not hold a copy of their data.  Readers see the
+     * contents of the vector as of the last call to snapshot().
+     * @return the current snapshot, or null if no snapshot has been published
+     */
+    public SparseDoubleVectorSnapshot getSnapshot()
+    {
+        return m_oSnapshot.get();
     }
 
 
@@ -395,18 +1126,33 @@ public class SparseDoubleVector
      */
     private ArrayMarker getMarkerWithIndex(long tnIndex)
     {
-        int lnCount = 0;
-        for (ArrayMarker loMarker : m_oMarkers)
+        return m_oMarkers.get(getMarkerPosition(tnIndex));
+    }
+
+    /**
+     * Gets the position in the marker list of the marker that should contain the index specified
+     * @param tnIndex the index of the marker to find
+     * @return the position of the last marker starting at or before tnIndex
+     */
+    private int getMarkerPosition(long tnIndex)
+    {
+        // Markers are ordered by start index so search for the last
+        // marker starting at or before tnIndex, without allocating an iterator
+        int lnLow = 0;
+        int lnHigh = m_oMarkers.size()-1;
+        while (lnLow < lnHigh)
         {
-            if (loMarker.m_nStartIndex > tnIndex)
+            int lnMiddle = (lnLow + lnHigh + 1) >>> 1;
+            if (m_oMarkers.get(lnMiddle).m_nStartIndex > tnIndex)
             {
-                // return the previous marker
-                return m_oMarkers.get(lnCount-1);
+                lnHigh = lnMiddle - 1;
+            }
+            else
+            {
+                lnLow = lnMiddle;
             }
-            lnCount ++;
         }
-        // return the last marker
-        return m_oMarkers.get(m_oMarkers.size()-1) ;
+        return lnLow;
     }
 
 
@@ -445,7 +1191,19 @@ public class SparseDoubleVector
      */
     public double setDouble(long tnIndex, double tnValue)
     {
-        return getMarkerWithIndex(tnIndex).set(tnIndex, tnValue);
+        ArrayMarker loMarker = getMarkerWithIndex(tnIndex);
+        if (!loMarker.contains(tnIndex))
+        {
+            // The index is not held by a run so the run is extended or a new one started
+            return insertDouble(tnIndex, tnValue, false);
+        }
+        double lnReturn = loMarker.set(tnIndex, tnValue);
+        Aggregates loAggregates = m_oAggregates;
+        if (loAggregates != null)
+        {
+            loAggregates.replace(lnReturn, tnValue);
+        }
+        return lnReturn;
     }
 
     /**
@@ -466,21 +1224,87 @@ public class SparseDoubleVector
      * @param tnIndex the index to insert the value at
      * @param tnValue the value to insert
      */
-    public synchronized void addDouble(long tnIndex, double tnValue)
+    public void addDouble(long tnIndex, double tnValue)
     {
-        ArrayMarker loMarker = getMarkerWithIndex(tnIndex);
+        insertDouble(tnIndex, tnValue, true);
+    }
+
+    /**
+     * Stores a value at an index which is not held by a run, or with tlShift inserts
+     * it in front of the value at the index.  The value extends the run that contains
+     * or ends at tnIndex, otherwise a new marker is started, and the values of all
+     * later markers are moved up one position in the storage.
+     * @param tnIndex the index to store the value at
+     * @param tnValue the value to store
+     * @param tlShift true to move every value at or after tnIndex up one index
+     * @return the value replaced, or 0 if there was no value at tnIndex
+     */
+    private synchronized double insertDouble(long tnIndex, double tnValue, boolean tlShift)
+    {
+        if (tnIndex < 0 || tnIndex >= Integer.MAX_VALUE - 1)
+        {
+            throw new InvalidParameterException("tnIndex", tnIndex);
+        }
+        int lnMarker = getMarkerPosition(tnIndex);
+        ArrayMarker loMarker = m_oMarkers.get(lnMarker);
+        Aggregates loAggregates = m_oAggregates;
+        if (!tlShift && loMarker.contains(tnIndex))
+        {
+            // The value was stored since the caller checked
+            double lnReturn = loMarker.set(tnIndex, tnValue);
+            if (loAggregates != null)
+            {
+                loAggregates.replace(lnReturn, tnValue);
+            }
+            return lnReturn;
+        }
 
-        if ((loMarker.m_nStartIndex + loMarker.getCapacity() >= tnIndex || loMarker.m_nEndIndex+1 >= tnIndex))
+        ArrayMarker loLast = m_oMarkers.get(m_oMarkers.size()-1);
+        synchronized (loLast)
         {
-            // The value can be added inside, or appended to the marker
+            // Grow the storage if needed, always leaving a free slot for the next add
+            int lnCount = (int)count();
+            double[] laArray = loLast.getArray();
+            if (lnCount + 1 >= laArray.length)
+            {
+                m_aData[loLast.m_nDataIndex] = java.util.Arrays.copyOf(laArray, (int)Math.min(Integer.MAX_VALUE - 8, Math.ceil((lnCount + 2) / m_nFillFactor)));
+                laArray = loLast.getArray();
+                m_nCapacity = laArray.length;
+            }
+
+            int lnPosition = loMarker.m_nItemIndex + (int)(Math.min(tnIndex, loMarker.m_nEndIndex) - loMarker.m_nStartIndex);
+            java.lang.System.arraycopy(laArray, lnPosition, laArray, lnPosition + 1, lnCount - lnPosition);
+            laArray[lnPosition] = tnValue;
+
+            if (tnIndex <= loMarker.m_nEndIndex)
+            {
+                loMarker.m_nEndIndex++;
+            }
+            else
+            {
+                // There is a gap so start a new run
+                loMarker = new ArrayMarker(loMarker.m_nDataIndex, lnPosition, (int)tnIndex);
+                loMarker.m_nEndIndex++;
+                m_oMarkers.add(++lnMarker, loMarker);
+            }
+            loMarker.m_aSnapshotRun = null;
+
+            for (int i=lnMarker+1, lnMarkers = m_oMarkers.size(); i<lnMarkers; i++)
+            {
+                ArrayMarker loNext = m_oMarkers.get(i);
+                loNext.m_nItemIndex++;
+                if (tlShift)
+                {
+                    loNext.m_nStartIndex++;
+                    loNext.m_nEndIndex++;
+                }
+            }
         }
-        else
+        if (loAggregates != null)
         {
-            // A new marker needs to be created
-            ArrayMarker loNewMarker = new ArrayMarker(0, loMarker.m_nEndIndex, (int)tnIndex);
-            m_oMarkers.add(loNewMarker);
-            loNewMarker.add(tnValue);
+            loAggregates.include(tnValue);
         }
+        return 0;
     }
 
 
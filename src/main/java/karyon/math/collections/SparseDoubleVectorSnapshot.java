@@ -0,0 +1,122 @@
+package karyon.math.collections;
+
+/**
+ * An immutable view of the contents of a SparseDoubleVector at the time
+ * the snapshot was taken.  Snapshots can be read from any number of threads
+ * without locking while the vector continues to be updated.
+ *
+ * The snapshot holds one run of values for each marker of the vector.
+ * Runs are never modified once created, so a run is shared by every snapshot
+ * taken while its marker was unchanged and an update only costs a copy of
+ * the run it touched the next time a snapshot is taken.
+ */
+public final class SparseDoubleVectorSnapshot
+    extends karyon.Object
+{
+    private final boolean m_lHorizontal;
+    private final int m_nSize;
+    private final long m_nCount;
+    private final int[] m_aStarts;
+    private final double[][] m_aRuns;
+
+    /**
+     * Creates a new snapshot, the arrays are used directly and must not be modified
+     * @param tlHorizontal true if the vector is horizontal
+     * @param tnSize the size of the vector
+     * @param taStarts the index of the first value of each run, ascending
+     * @param taRuns the values of each run
+     */
+    SparseDoubleVectorSnapshot(boolean tlHorizontal, int tnSize, int[] taStarts, double[][] taRuns)
+    {
+        m_lHorizontal = tlHorizontal;
+        m_nSize = tnSize;
+        m_aStarts = taStarts;
+        m_aRuns = taRuns;
+        long lnCount = 0;
+        for (int i=0; i<taRuns.length; i++)
+        {
+            lnCount += taRuns[i].length;
+        }
+        m_nCount = lnCount;
+    }
+
+    /**
+     * Checks if the vector was horizontal or vertical
+     * @return true if a horizontal representation, false otherwise
+     */
+    public boolean isHorizontal()
+    {
+        return m_lHorizontal;
+    }
+
+    /**
+     * Gets the size of the vector when the snapshot was taken
+     * @return the index of the last item stored +1
+     */
+    public int size()
+    {
+        return m_nSize;
+    }
+
+    /**
+     * Gets the number of concrete elements in the vector when the snapshot was taken
+     * @return the number of concrete elements
+     */
+    public long count()
+    {
+        return m_nCount;
+    }
+
+    /**
+     * Gets the double at the specified position
+     * @param tnIndex the index of the value
+     * @return the value at the index specified, 0 if there is no value at tnIndex
+     */
+    public double getDouble(long tnIndex)
+    {
+        // Find the last run starting at or before tnIndex
+        int lnLow = 0;
+        int lnHigh = m_aStarts.length - 1;
+        while (lnLow <= lnHigh)
+        {
+            int lnMiddle = (lnLow + lnHigh) >>> 1;
+            if (m_aStarts[lnMiddle] > tnIndex)
+            {
+                lnHigh = lnMiddle - 1;
+            }
+            else
+            {
+                lnLow = lnMiddle + 1;
+            }
+        }
+        if (lnHigh < 0)
+        {
+            return 0;
+        }
+        long lnOffset = tnIndex - m_aStarts[lnHigh];
+        double[] laRun = m_aRuns[lnHigh];
+        return lnOffset < laRun.length ? laRun[(int)lnOffset] : 0;
+    }
+
+    /**
+     * Checks if this snapshot shares every run with the runs specified
+     * @param taStarts the start of each run
+     * @param taRuns the runs
+     * @return true if the runs are identical
+     */
+    boolean hasRuns(int[] taStarts, double[][] taRuns)
+    {
+        if (taRuns.length != m_aRuns.length)
+        {
+            return false;
+        }
+        for (int i=0; i<taRuns.length; i++)
+        {
+            if (taRuns[i] != m_aRuns[i] || taStarts[i] != m_aStarts[i])
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,192 @@
+package karyon.math.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A memory mapped text file split on line boundaries into chunks
+ * which can be parsed in parallel
+ */
+class ChunkedFile
+{
+    /**
+     * The largest region that will be mapped at once, mappings are limited to int offsets
+     */
+    private static final long MAX_CHUNK_SIZE = Integer.MAX_VALUE - 1024;
+
+    /**
+     * Chunks smaller than this are not worth a separate task
+     */
+    public static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    private final RandomAccessFile m_oFile;
+    private final FileChannel m_oChannel;
+
+    /**
+     * Opens the file for reading
+     * @param toFile the file to open
+     * @throws IOException if the file can not be opened
+     */
+    public ChunkedFile(File toFile)
+            throws IOException
+    {
+        m_oFile = new RandomAccessFile(toFile, "r");
+        m_oChannel = m_oFile.getChannel();
+    }
+
+    /**
+     * Gets the size of the file in bytes
+     * @return the size of the file
+     * @throws IOException if the size can not be read
+     */
+    public long size()
+            throws IOException
+    {
+        return m_oChannel.size();
+    }
+
+    /**
+     * Maps the start of the file, used to read the header
+     * @return a chunk over the start of the file
+     * @throws IOException if the file can not be mapped
+     */
+    public MappedTextChunk mapHeader()
+            throws IOException
+    {
+        return map(0, Math.min(size(), MAX_CHUNK_SIZE));
+    }
+
+    /**
+     * Splits the file from tnStart to the end into line aligned chunks
+     * @param tnStart the offset to start splitting from
+     * @param tnThreads the number of threads the chunks will be parsed with
+     * @param tnMinChunkSize the smallest chunk worth parsing on a separate thread
+     * @return the chunks, in file order
+     * @throws IOException if the file can not be mapped
+     */
+    public MappedTextChunk[] split(long tnStart, int tnThreads, long tnMinChunkSize)
+            throws IOException
+    {
+        long lnEnd = size();
+        long lnLength = lnEnd - tnStart;
+        long lnChunks = Math.max(1, Math.min(tnThreads, lnLength / Math.max(1, tnMinChunkSize)));
+        long lnChunkSize = Math.min(MAX_CHUNK_SIZE / 2, (lnLength + lnChunks - 1) / lnChunks);
+
+        List<MappedTextChunk> loChunks = new ArrayList<MappedTextChunk>();
+        long lnChunkStart = tnStart;
+        while (lnChunkStart < lnEnd)
+        {
+            long lnChunkEnd = lnChunkStart + lnChunkSize >= lnEnd ? lnEnd : findLineStart(lnChunkStart + lnChunkSize, lnEnd);
+            if (lnChunkEnd - lnChunkStart > MAX_CHUNK_SIZE)
+            {
+                throw new IOException("Line starting near byte " + lnChunkStart + " is too long");
+            }
+            loChunks.add(map(lnChunkStart, lnChunkEnd - lnChunkStart));
+            lnChunkStart = lnChunkEnd;
+        }
+        return loChunks.toArray(new MappedTextChunk[loChunks.size()]);
+    }
+
+    /**
+     * Closes the file.  Mappings remain valid until they are collected.
+     * @throws IOException if the file could not be closed
+     */
+    public void close()
+            throws IOException
+    {
+        m_oFile.close();
+    }
+
+    /**
+     * Finds the start of the line following tnOffset
+     * @param tnOffset the offset to search from
+     * @param tnEnd the end of the file
+     * @return the offset of the first byte after the next line break, or tnEnd
+     * @throws IOException if the file could not be read
+     */
+    private long findLineStart(long tnOffset, long tnEnd)
+            throws IOException
+    {
+        ByteBuffer loBuffer = ByteBuffer.allocate(4096);
+        long lnPosition = tnOffset;
+        while (lnPosition < tnEnd)
+        {
+            loBuffer.clear();
+            int lnRead = m_oChannel.read(loBuffer, lnPosition);
+            if (lnRead <= 0)
+            {
+                break;
+            }
+            for (int i=0; i<lnRead; i++)
+            {
+                if (loBuffer.get(i) == '\n')
+                {
+                    return lnPosition + i + 1;
+                }
+            }
+            lnPosition += lnRead;
+        }
+        return tnEnd;
+    }
+
+    /**
+     * Maps a region of the file
+     * @param tnStart the start of the region
+     * @param tnLength the length of the region
+     * @return a chunk over the region
+     * @throws IOException if the region could not be mapped
+     */
+    private MappedTextChunk map(long tnStart, long tnLength)
+            throws IOException
+    {
+        return new MappedTextChunk(m_oChannel.map(FileChannel.MapMode.READ_ONLY, tnStart, tnLength), tnStart);
+    }
+
+    /**
+     * Runs the tasks on the executor and waits for them all to complete
+     * @param toExecutor the executor to run the tasks on
+     * @param toTasks the tasks to run
+     * @param <T> the result type of the tasks
+     * @return the results, in the same order as the tasks
+     * @throws IOException if any task failed
+     */
+    public static <T> List<T> invokeAll(ExecutorService toExecutor, List<? extends Callable<T>> toTasks)
+            throws IOException
+    {
+        try
+        {
+            List<T> loResults = new ArrayList<T>(toTasks.size());
+            for (Future<T> loFuture : toExecutor.invokeAll(toTasks))
+            {
+                loResults.add(loFuture.get());
+            }
+            return loResults;
+        }
+        catch (InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading");
+        }
+        catch (ExecutionException ex)
+        {
+            if (ex.getCause() instanceof IOException)
+            {
+                throw (IOException)ex.getCause();
+            }
+            if (ex.getCause() instanceof RuntimeException)
+            {
+                throw (RuntimeException)ex.getCause();
+            }
+            throw new IOException(ex.getCause().toString());
+        }
+    }
+}
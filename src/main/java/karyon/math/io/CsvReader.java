@@ -0,0 +1,209 @@
+package karyon.math.io;
+
+import karyon.math.collections.SparseDoubleMatrix;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Reads comma separated files of numbers as matrices.
+ *
+ * Each non blank line is a row of the matrix.  Empty fields and zeros
+ * are not stored.  The file is memory mapped, split on line boundaries
+ * and parsed in two passes on multiple threads, the first pass counts
+ * the non zero values on each line and the second fills the compressed
+ * sparse row arrays directly.
+ */
+public class CsvReader
+    extends ParallelTextReader
+{
+    /**
+     * The result of counting a chunk
+     */
+    private static class ChunkCount
+    {
+        private int[] m_aNonZeroCounts = new int[64];
+        private int m_nLines;
+        private int m_nColumns;
+    }
+
+    /**
+     * Creates a new reader which parses on one thread per available processor
+     */
+    public CsvReader()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new reader which parses with the specified number of threads
+     * @param tnThreads the number of threads to parse with, must be > 0
+     */
+    public CsvReader(int tnThreads)
+    {
+        super(tnThreads);
+    }
+
+    /**
+     * Reads a matrix from a comma separated file
+     * @param toFile the file to read
+     * @return the matrix
+     * @throws IOException if the file could not be read or contains something other than numbers
+     */
+    public SparseDoubleMatrix readMatrix(File toFile)
+            throws IOException
+    {
+        ChunkedFile loFile = new ChunkedFile(toFile);
+        try
+        {
+            MappedTextChunk[] laChunks = split(loFile, 0);
+            ExecutorService loExecutor = createExecutor(laChunks.length);
+            try
+            {
+                // Pass 1, count the lines and the non zero values on each line
+                List<Callable<ChunkCount>> loCountTasks = new ArrayList<Callable<ChunkCount>>(laChunks.length);
+                for (final MappedTextChunk loChunk : laChunks)
+                {
+                    loCountTasks.add(new Callable<ChunkCount>()
+                    {
+                        @Override
+                        public ChunkCount call() throws Exception
+                        {
+                            ChunkCount loCount = new ChunkCount();
+                            while (loChunk.skipBlankAndCommentLines(-1))
+                            {
+                                if (loCount.m_nLines == loCount.m_aNonZeroCounts.length)
+                                {
+                                    loCount.m_aNonZeroCounts = java.util.Arrays.copyOf(loCount.m_aNonZeroCounts, loCount.m_nLines * 2);
+                                }
+                                loCount.m_aNonZeroCounts[loCount.m_nLines++] = parseLine(loChunk, loCount, null, null, 0);
+                            }
+                            return loCount;
+                        }
+                    });
+                }
+                List<ChunkCount> loCounts = ChunkedFile.invokeAll(loExecutor, loCountTasks);
+
+                long lnRows = 0;
+                int lnColumns = 0;
+                for (ChunkCount loCount : loCounts)
+                {
+                    lnRows += loCount.m_nLines;
+                    lnColumns = Math.max(lnColumns, loCount.m_nColumns);
+                }
+                if (lnRows >= Integer.MAX_VALUE)
+                {
+                    throw new IOException("Too many rows for an in memory matrix");
+                }
+
+                final int[] laRowPointers = new int[(int)lnRows + 1];
+                final int[] laFirstRows = new int[laChunks.length];
+                int lnRow = 0;
+                long lnTotal = 0;
+                for (int i=0; i<laChunks.length; i++)
+                {
+                    ChunkCount loCount = loCounts.get(i);
+                    laFirstRows[i] = lnRow;
+                    for (int j=0; j<loCount.m_nLines; j++)
+                    {
+                        lnTotal += loCount.m_aNonZeroCounts[j];
+                        if (lnTotal > Integer.MAX_VALUE)
+                        {
+                            throw new IOException("Too many values for an in memory matrix");
+                        }
+                        laRowPointers[++lnRow] = (int)lnTotal;
+                    }
+                }
+
+                // Pass 2, fill the values of each line into its row
+                final int[] laColumns = new int[(int)lnTotal];
+                final double[] laValues = new double[(int)lnTotal];
+                List<Callable<Integer>> loFillTasks = new ArrayList<Callable<Integer>>(laChunks.length);
+                for (int i=0; i<laChunks.length; i++)
+                {
+                    final MappedTextChunk loChunk = laChunks[i];
+                    final int lnFirstRow = laFirstRows[i];
+                    loFillTasks.add(new Callable<Integer>()
+                    {
+                        @Override
+                        public Integer call() throws Exception
+                        {
+                            loChunk.reset();
+                            int lnRow = lnFirstRow;
+                            while (loChunk.skipBlankAndCommentLines(-1))
+                            {
+                                parseLine(loChunk, null, laColumns, laValues, laRowPointers[lnRow++]);
+                            }
+                            return lnRow - lnFirstRow;
+                        }
+                    });
+                }
+                ChunkedFile.invokeAll(loExecutor, loFillTasks);
+
+                return new SparseDoubleMatrix((int)lnRows, lnColumns, laRowPointers, laColumns, laValues);
+            }
+            finally
+            {
+                loExecutor.shutdown();
+            }
+        }
+        finally
+        {
+            loFile.close();
+        }
+    }
+
+    /**
+     * Parses a line, storing the non zero values if arrays are provided
+     * @param toChunk the chunk positioned at the start of the line
+     * @param toCount the count to record the number of fields in, or null
+     * @param taColumns the column indices to fill, or null to only count
+     * @param taValues the values to fill, or null to only count
+     * @param tnPosition the position to fill from
+     * @return the number of non zero values on the line
+     * @throws IOException if the line contains something other than numbers
+     */
+    private static int parseLine(MappedTextChunk toChunk, ChunkCount toCount, int[] taColumns, double[] taValues, int tnPosition)
+            throws IOException
+    {
+        int lnNonZero = 0;
+        int lnColumn = 0;
+        while (true)
+        {
+            toChunk.skipSpaces();
+            if (toChunk.peek() != ',' && !toChunk.isLineEnd())
+            {
+                double lnValue = toChunk.nextDouble();
+                if (lnValue != 0)
+                {
+                    if (taColumns != null)
+                    {
+                        taColumns[tnPosition + lnNonZero] = lnColumn;
+                        taValues[tnPosition + lnNonZero] = lnValue;
+                    }
+                    lnNonZero++;
+                }
+            }
+            lnColumn++;
+            toChunk.skipSpaces();
+            if (!toChunk.consume(','))
+            {
+                if (!toChunk.isLineEnd())
+                {
+                    throw new IOException("Expected a separator at byte " + toChunk.getFileOffset());
+                }
+                break;
+            }
+        }
+        if (toCount != null)
+        {
+            toCount.m_nColumns = Math.max(toCount.m_nColumns, lnColumn);
+        }
+        toChunk.skipLine();
+        return lnNonZero;
+    }
+}
@@ -0,0 +1,62 @@
+package karyon.math.io;
+
+import karyon.math.collections.SparseDoubleMatrix;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes matrices as comma separated files, one line per row.
+ * Zeros are written as empty fields so the output stays compact.
+ */
+public class CsvWriter
+    extends karyon.Object
+{
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Writes the matrix to the file, replacing any existing contents
+     * @param toMatrix the matrix to write
+     * @param toFile the file to write to
+     * @throws IOException if the file could not be written
+     */
+    public void write(SparseDoubleMatrix toMatrix, File toFile)
+            throws IOException
+    {
+        Writer loWriter = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(toFile), "US-ASCII"), BUFFER_SIZE);
+        try
+        {
+            int lnColumns = toMatrix.getColumnCount();
+            for (int lnRow = 0, lnRows = toMatrix.getRowCount(); lnRow < lnRows; lnRow++)
+            {
+                int lnColumn = 0;
+                if (toMatrix.getRowStart(lnRow) == toMatrix.getRowEnd(lnRow) && lnColumns > 0)
+                {
+                    // An empty line would be skipped when reading so mark the row with a zero
+                    loWriter.write('0');
+                }
+                for (int i=toMatrix.getRowStart(lnRow), lnEnd = toMatrix.getRowEnd(lnRow); i<lnEnd; i++)
+                {
+                    for (; lnColumn < toMatrix.getColumnIndex(i); lnColumn++)
+                    {
+                        loWriter.write(',');
+                    }
+                    loWriter.write(Double.toString(toMatrix.getValue(i)));
+                }
+                for (; lnColumn < lnColumns - 1; lnColumn++)
+                {
+                    loWriter.write(',');
+                }
+                loWriter.write('\n');
+            }
+        }
+        finally
+        {
+            loWriter.close();
+        }
+    }
+}
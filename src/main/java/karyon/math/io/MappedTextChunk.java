@@ -0,0 +1,361 @@
+package karyon.math.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A cursor over a line aligned region of a memory mapped text file.
+ * Numbers are parsed directly from the mapped bytes so no String
+ * is created per token.
+ */
+class MappedTextChunk
+{
+    /**
+     * Powers of ten which are exactly representable as doubles
+     */
+    private static final double[] POWERS_OF_TEN = new double[]{
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * The maximum number of significant digits which are accumulated in the mantissa
+     */
+    private static final int MAX_MANTISSA_DIGITS = 18;
+
+    private final ByteBuffer m_oBuffer;
+    private final long m_nFileOffset;
+    private final int m_nLimit;
+    private int m_nPosition;
+
+    /**
+     * Creates a new chunk over the buffer
+     * @param toBuffer the buffer containing the bytes of the chunk, from position 0 to the limit
+     * @param tnFileOffset the offset of the start of the buffer in the file, used for reporting errors
+     */
+    public MappedTextChunk(ByteBuffer toBuffer, long tnFileOffset)
+    {
+        m_oBuffer = toBuffer;
+        m_nFileOffset = tnFileOffset;
+        m_nLimit = toBuffer.limit();
+        m_nPosition = 0;
+    }
+
+    /**
+     * Moves the cursor back to the start of the chunk
+     */
+    public void reset()
+    {
+        m_nPosition = 0;
+    }
+
+    /**
+     * Gets the current offset of the cursor within the file
+     * @return the offset within the file
+     */
+    public long getFileOffset()
+    {
+        return m_nFileOffset + m_nPosition;
+    }
+
+    /**
+     * Checks if there are bytes left to read
+     * @return true if there are more bytes
+     */
+    public boolean hasRemaining()
+    {
+        return m_nPosition < m_nLimit;
+    }
+
+    /**
+     * Gets the next byte without consuming it
+     * @return the next byte, or -1 if there are no bytes left
+     */
+    public int peek()
+    {
+        return m_nPosition < m_nLimit ? m_oBuffer.get(m_nPosition) : -1;
+    }
+
+    /**
+     * Consumes the next byte if it is tnByte
+     * @param tnByte the byte to consume
+     * @return true if the byte was consumed
+     */
+    public boolean consume(int tnByte)
+    {
+        if (peek() == tnByte)
+        {
+            m_nPosition++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skips spaces and tabs, stopping at the end of the line
+     */
+    public void skipSpaces()
+    {
+        while (m_nPosition < m_nLimit)
+        {
+            byte lnByte = m_oBuffer.get(m_nPosition);
+            if (lnByte != ' ' && lnByte != '\t')
+            {
+                return;
+            }
+            m_nPosition++;
+        }
+    }
+
+    /**
+     * Skips spaces and tabs then checks if the cursor is at the end of a line
+     * @return true if the cursor is at a line break or the end of the chunk
+     */
+    public boolean isLineEnd()
+    {
+        skipSpaces();
+        int lnByte = peek();
+        return lnByte == -1 || lnByte == '\n' || lnByte == '\r';
+    }
+
+    /**
+     * Moves the cursor to the start of the next line
+     */
+    public void skipLine()
+    {
+        while (m_nPosition < m_nLimit)
+        {
+            if (m_oBuffer.get(m_nPosition++) == '\n')
+            {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Skips blank lines and lines starting with the comment character
+     * @param tnComment the character that starts a comment line, or -1 if there are no comments
+     * @return true if there is content left to read
+     */
+    public boolean skipBlankAndCommentLines(int tnComment)
+    {
+        while (m_nPosition < m_nLimit)
+        {
+            byte lnByte = m_oBuffer.get(m_nPosition);
+            if (lnByte == ' ' || lnByte == '\t' || lnByte == '\r' || lnByte == '\n')
+            {
+                m_nPosition++;
+            }
+            else if (lnByte == tnComment)
+            {
+                skipLine();
+            }
+            else
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads the rest of the current line as text, used for headers only
+     * @return the text up to the end of the line
+     */
+    public String nextLine()
+    {
+        int lnStart = m_nPosition;
+        while (m_nPosition < m_nLimit && m_oBuffer.get(m_nPosition) != '\n')
+        {
+            m_nPosition++;
+        }
+        String lcLine = getText(lnStart, m_nPosition).trim();
+        if (m_nPosition < m_nLimit)
+        {
+            m_nPosition++;
+        }
+        return lcLine;
+    }
+
+    /**
+     * Parses an integer at the cursor, skipping leading spaces
+     * @return the integer
+     * @throws IOException if there is no integer at the cursor
+     */
+    public long nextLong()
+            throws IOException
+    {
+        skipSpaces();
+        boolean llNegative = consume('-');
+        if (!llNegative)
+        {
+            consume('+');
+        }
+        int lnStart = m_nPosition;
+        long lnValue = 0;
+        while (m_nPosition < m_nLimit)
+        {
+            int lnDigit = m_oBuffer.get(m_nPosition) - '0';
+            if (lnDigit < 0 || lnDigit > 9)
+            {
+                break;
+            }
+            lnValue = lnValue * 10 + lnDigit;
+            m_nPosition++;
+        }
+        if (m_nPosition == lnStart || m_nPosition - lnStart > 18 || !isDelimiter(peek()))
+        {
+            throw new IOException("Expected an integer at byte " + getFileOffset());
+        }
+        return llNegative ? -lnValue : lnValue;
+    }
+
+    /**
+     * Parses a decimal number at the cursor, skipping leading spaces.
+     * Numbers with up to 15 significant digits and a small exponent are
+     * converted exactly without allocation, anything else falls back
+     * to Double.parseDouble
+     * @return the number
+     * @throws IOException if there is no number at the cursor
+     */
+    public double nextDouble()
+            throws IOException
+    {
+        skipSpaces();
+        int lnStart = m_nPosition;
+        boolean llNegative = consume('-');
+        if (!llNegative)
+        {
+            consume('+');
+        }
+
+        long lnMantissa = 0;
+        int lnDigits = 0;
+        int lnExponent = 0;
+        boolean llDigits = false;
+        boolean llTruncated = false;
+
+        // Integer part
+        int lnDigit;
+        while ((lnDigit = peek() - '0') >= 0 && lnDigit <= 9)
+        {
+            llDigits = true;
+            m_nPosition++;
+            if (lnDigits < MAX_MANTISSA_DIGITS)
+            {
+                lnMantissa = lnMantissa * 10 + lnDigit;
+                if (lnMantissa != 0)
+                {
+                    lnDigits++;
+                }
+            }
+            else
+            {
+                llTruncated |= lnDigit != 0;
+                lnExponent++;
+            }
+        }
+
+        // Fractional part
+        if (consume('.'))
+        {
+            while ((lnDigit = peek() - '0') >= 0 && lnDigit <= 9)
+            {
+                llDigits = true;
+                m_nPosition++;
+                if (lnDigits < MAX_MANTISSA_DIGITS)
+                {
+                    lnMantissa = lnMantissa * 10 + lnDigit;
+                    lnExponent--;
+                    if (lnMantissa != 0)
+                    {
+                        lnDigits++;
+                    }
+                }
+                else
+                {
+                    llTruncated |= lnDigit != 0;
+                }
+            }
+        }
+
+        if (llDigits && (consume('e') || consume('E')))
+        {
+            boolean llNegativeExponent = consume('-');
+            if (!llNegativeExponent)
+            {
+                consume('+');
+            }
+            int lnExponentStart = m_nPosition;
+            int lnValue = 0;
+            while ((lnDigit = peek() - '0') >= 0 && lnDigit <= 9)
+            {
+                m_nPosition++;
+                // Anything this large is out of range for a double anyway
+                if (lnValue < 100000)
+                {
+                    lnValue = lnValue * 10 + lnDigit;
+                }
+            }
+            if (m_nPosition == lnExponentStart)
+            {
+                llDigits = false;
+            }
+            lnExponent += llNegativeExponent ? -lnValue : lnValue;
+        }
+
+        if (llDigits && isDelimiter(peek()))
+        {
+            if (lnMantissa == 0)
+            {
+                return llNegative ? -0.0 : 0.0;
+            }
+            if (!llTruncated && lnDigits <= 15 && lnExponent >= -22 && lnExponent <= 22)
+            {
+                double lnValue = lnExponent >= 0 ?
+                        lnMantissa * POWERS_OF_TEN[lnExponent] :
+                        lnMantissa / POWERS_OF_TEN[-lnExponent];
+                return llNegative ? -lnValue : lnValue;
+            }
+        }
+
+        // Slow path for long mantissas, large exponents, NaN and Infinity
+        while (!isDelimiter(peek()))
+        {
+            m_nPosition++;
+        }
+        try
+        {
+            return Double.parseDouble(getText(lnStart, m_nPosition));
+        }
+        catch (NumberFormatException ex)
+        {
+            throw new IOException("Expected a number at byte " + (m_nFileOffset + lnStart));
+        }
+    }
+
+    /**
+     * Checks if the byte ends a token
+     * @param tnByte the byte to check
+     * @return true if the byte is a delimiter or the end of the chunk
+     */
+    private static boolean isDelimiter(int tnByte)
+    {
+        return tnByte == -1 || tnByte == ' ' || tnByte == '\t' || tnByte == '\n' || tnByte == '\r' || tnByte == ',';
+    }
+
+    /**
+     * Gets the bytes between the positions as ASCII text
+     * @param tnStart the start position
+     * @param tnEnd the end position
+     * @return the text
+     */
+    private String getText(int tnStart, int tnEnd)
+    {
+        char[] laChars = new char[tnEnd - tnStart];
+        for (int i=0; i<laChars.length; i++)
+        {
+            laChars[i] = (char)(m_oBuffer.get(tnStart + i) & 0xff);
+        }
+        return new String(laChars);
+    }
+}
@@ -0,0 +1,503 @@
+package karyon.math.io;
+
+import karyon.math.collections.SparseDoubleMatrix;
+import karyon.math.collections.SparseDoubleVector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Reads Matrix Market coordinate files.
+ *
+ * The file is memory mapped and split on line boundaries so that each
+ * chunk can be parsed on a separate thread.  Matrices are built in two
+ * passes, the first counts the values in each row and the second fills
+ * the compressed sparse row arrays directly, so no intermediate
+ * coordinate list is ever held in memory.
+ *
+ * Supports real, integer and pattern fields with general, symmetric
+ * and skew-symmetric symmetry.
+ */
+public class MatrixMarketReader
+    extends ParallelTextReader
+{
+    private static final int GENERAL = 0;
+    private static final int SYMMETRIC = 1;
+    private static final int SKEW_SYMMETRIC = 2;
+
+    /**
+     * Rows shorter than this are sorted with an insertion sort
+     */
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    /**
+     * The information from the banner and size line of the file
+     */
+    private static class Header
+    {
+        private int m_nRows;
+        private int m_nColumns;
+        private long m_nEntries;
+        private boolean m_lPattern;
+        private int m_nSymmetry;
+        private long m_nDataStart;
+    }
+
+    /**
+     * The entries of a vector parsed from a chunk, in file order
+     */
+    private static class ChunkEntries
+    {
+        private int[] m_aIndices = new int[64];
+        private double[] m_aValues = new double[64];
+        private int m_nCount;
+    }
+
+    /**
+     * Creates a new reader which parses on one thread per available processor
+     */
+    public MatrixMarketReader()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a new reader which parses with the specified number of threads
+     * @param tnThreads the number of threads to parse with, must be > 0
+     */
+    public MatrixMarketReader(int tnThreads)
+    {
+        super(tnThreads);
+    }
+
+    /**
+     * Reads a matrix from a Matrix Market coordinate file
+     * @param toFile the file to read
+     * @return the matrix
+     * @throws IOException if the file could not be read or is not a supported Matrix Market file
+     */
+    public SparseDoubleMatrix readMatrix(File toFile)
+            throws IOException
+    {
+        ChunkedFile loFile = new ChunkedFile(toFile);
+        try
+        {
+            final Header loHeader = readHeader(loFile);
+            if (loHeader.m_nSymmetry != GENERAL && loHeader.m_nRows != loHeader.m_nColumns)
+            {
+                throw new IOException("Symmetric matrices must be square");
+            }
+            MappedTextChunk[] laChunks = split(loFile, loHeader.m_nDataStart);
+            ExecutorService loExecutor = createExecutor(laChunks.length);
+            try
+            {
+                // Pass 1, count the values in each row
+                final AtomicIntegerArray loCounts = new AtomicIntegerArray(loHeader.m_nRows);
+                List<Callable<Long>> loTasks = new ArrayList<Callable<Long>>(laChunks.length);
+                for (final MappedTextChunk loChunk : laChunks)
+                {
+                    loTasks.add(new Callable<Long>()
+                    {
+                        @Override
+                        public Long call() throws Exception
+                        {
+                            return countEntries(loChunk, loHeader, loCounts);
+                        }
+                    });
+                }
+                long lnEntries = 0;
+                for (Long lnCount : ChunkedFile.invokeAll(loExecutor, loTasks))
+                {
+                    lnEntries += lnCount;
+                }
+                if (lnEntries != loHeader.m_nEntries)
+                {
+                    throw new IOException("Expected " + loHeader.m_nEntries + " entries but found " + lnEntries);
+                }
+
+                final int[] laRowPointers = new int[loHeader.m_nRows + 1];
+                long lnTotal = 0;
+                for (int i=0; i<loHeader.m_nRows; i++)
+                {
+                    lnTotal += loCounts.get(i);
+                    if (lnTotal > Integer.MAX_VALUE)
+                    {
+                        throw new IOException("Too many values for an in memory matrix");
+                    }
+                    laRowPointers[i + 1] = (int)lnTotal;
+                }
+
+                // Pass 2, fill the values directly into their rows
+                final int[] laColumns = new int[(int)lnTotal];
+                final double[] laValues = new double[(int)lnTotal];
+                final AtomicIntegerArray loCursors = new AtomicIntegerArray(loHeader.m_nRows);
+                for (int i=0; i<loHeader.m_nRows; i++)
+                {
+                    loCursors.set(i, laRowPointers[i]);
+                }
+                loTasks.clear();
+                for (final MappedTextChunk loChunk : laChunks)
+                {
+                    loTasks.add(new Callable<Long>()
+                    {
+                        @Override
+                        public Long call() throws Exception
+                        {
+                            loChunk.reset();
+                            fillEntries(loChunk, loHeader, loCursors, laColumns, laValues);
+                            return 0L;
+                        }
+                    });
+                }
+                ChunkedFile.invokeAll(loExecutor, loTasks);
+
+                // Entries can be in any order in the file so sort each row by column
+                loTasks.clear();
+                int lnRowsPerTask = Math.max(1, (loHeader.m_nRows + getThreads() - 1) / getThreads());
+                for (int lnStart = 0; lnStart < loHeader.m_nRows; lnStart += lnRowsPerTask)
+                {
+                    final int lnFirstRow = lnStart;
+                    final int lnLastRow = Math.min(loHeader.m_nRows, lnStart + lnRowsPerTask);
+                    loTasks.add(new Callable<Long>()
+                    {
+                        @Override
+                        public Long call() throws Exception
+                        {
+                            for (int i=lnFirstRow; i<lnLastRow; i++)
+                            {
+                                sortRow(laColumns, laValues, laRowPointers[i], laRowPointers[i + 1]);
+                            }
+                            return 0L;
+                        }
+                    });
+                }
+                ChunkedFile.invokeAll(loExecutor, loTasks);
+
+                return new SparseDoubleMatrix(loHeader.m_nRows, loHeader.m_nColumns, laRowPointers, laColumns, laValues);
+            }
+            finally
+            {
+                loExecutor.shutdown();
+            }
+        }
+        finally
+        {
+            loFile.close();
+        }
+    }
+
+    /**
+     * Reads a vector from a Matrix Market coordinate file with a single row or column.
+     * A single row is read as a horizontal vector, a single column as a vertical vector.
+     * Only the entries of the file are stored, so the count of the vector is the number
+     * of entries and its size is the index of the last entry + 1.
+     * @param toFile the file to read
+     * @return the vector
+     * @throws IOException if the file could not be read or is not a supported Matrix Market vector
+     */
+    public SparseDoubleVector readVector(File toFile)
+            throws IOException
+    {
+        ChunkedFile loFile = new ChunkedFile(toFile);
+        try
+        {
+            final Header loHeader = readHeader(loFile);
+            if (loHeader.m_nRows != 1 && loHeader.m_nColumns != 1)
+            {
+                throw new IOException("A vector must have a single row or column");
+            }
+            if (loHeader.m_nEntries >= Integer.MAX_VALUE)
+            {
+                throw new IOException("Too many entries for an in memory vector");
+            }
+            final boolean llHorizontal = loHeader.m_nRows == 1;
+            MappedTextChunk[] laChunks = split(loFile, loHeader.m_nDataStart);
+            ExecutorService loExecutor = createExecutor(laChunks.length);
+            try
+            {
+                // Collect the index and value of each entry, chunks are returned in file order
+                List<Callable<ChunkEntries>> loTasks = new ArrayList<Callable<ChunkEntries>>(laChunks.length);
+                for (final MappedTextChunk loChunk : laChunks)
+                {
+                    loTasks.add(new Callable<ChunkEntries>()
+                    {
+                        @Override
+                        public ChunkEntries call() throws Exception
+                        {
+                            ChunkEntries loEntries = new ChunkEntries();
+                            while (loChunk.skipBlankAndCommentLines('%'))
+                            {
+                                int lnRow = nextIndex(loChunk, loHeader.m_nRows);
+                                int lnColumn = nextIndex(loChunk, loHeader.m_nColumns);
+                                if (loEntries.m_nCount == loEntries.m_aIndices.length)
+                                {
+                                    loEntries.m_aIndices = java.util.Arrays.copyOf(loEntries.m_aIndices, loEntries.m_nCount * 2);
+                                    loEntries.m_aValues = java.util.Arrays.copyOf(loEntries.m_aValues, loEntries.m_nCount * 2);
+                                }
+                                loEntries.m_aIndices[loEntries.m_nCount] = llHorizontal ? lnColumn : lnRow;
+                                loEntries.m_aValues[loEntries.m_nCount++] = loHeader.m_lPattern ? 1 : loChunk.nextDouble();
+                                loChunk.skipLine();
+                            }
+                            return loEntries;
+                        }
+                    });
+                }
+                List<ChunkEntries> loChunkEntries = ChunkedFile.invokeAll(loExecutor, loTasks);
+
+                long lnEntries = 0;
+                for (ChunkEntries loEntries : loChunkEntries)
+                {
+                    lnEntries += loEntries.m_nCount;
+                }
+                if (lnEntries != loHeader.m_nEntries)
+                {
+                    throw new IOException("Expected " + loHeader.m_nEntries + " entries but found " + lnEntries);
+                }
+
+                int[] laIndices = new int[(int)lnEntries];
+                double[] laValues = new double[(int)lnEntries];
+                int lnPosition = 0;
+                for (ChunkEntries loEntries : loChunkEntries)
+                {
+                    java.lang.System.arraycopy(loEntries.m_aIndices, 0, laIndices, lnPosition, loEntries.m_nCount);
+                    java.lang.System.arraycopy(loEntries.m_aValues, 0, laValues, lnPosition, loEntries.m_nCount);
+                    lnPosition += loEntries.m_nCount;
+                }
+                sortRow(laIndices, laValues, 0, laIndices.length);
+                for (int i=1; i<laIndices.length; i++)
+                {
+                    if (laIndices[i] == laIndices[i - 1])
+                    {
+                        throw new IOException("Duplicate entry for index " + (laIndices[i] + 1));
+                    }
+                }
+
+                SparseDoubleVector loVector = new SparseDoubleVector((int)Math.ceil((laIndices.length + 1) / .75f), .75f, llHorizontal);
+                loVector.importNonZeros(laIndices, laValues, 0, laIndices.length);
+                return loVector;
+            }
+            finally
+            {
+                loExecutor.shutdown();
+            }
+        }
+        finally
+        {
+            loFile.close();
+        }
+    }
+
+    /**
+     * Reads the banner, comments and size line of the file
+     * @param toFile the file to read from
+     * @return the header
+     * @throws IOException if the header is missing or describes an unsupported format
+     */
+    private Header readHeader(ChunkedFile toFile)
+            throws IOException
+    {
+        MappedTextChunk loChunk = toFile.mapHeader();
+        String[] laBanner = loChunk.nextLine().toLowerCase().split("\\s+");
+        if (laBanner.length != 5 || !laBanner[0].equals("%%matrixmarket") || !laBanner[1].equals("matrix"))
+        {
+            throw new IOException("Missing Matrix Market banner");
+        }
+        if (!laBanner[2].equals("coordinate"))
+        {
+            throw new IOException("Unsupported Matrix Market format " + laBanner[2]);
+        }
+
+        Header loHeader = new Header();
+        if (laBanner[3].equals("pattern"))
+        {
+            loHeader.m_lPattern = true;
+        }
+        else if (!laBanner[3].equals("real") && !laBanner[3].equals("integer"))
+        {
+            throw new IOException("Unsupported Matrix Market field " + laBanner[3]);
+        }
+
+        if (laBanner[4].equals("general"))
+        {
+            loHeader.m_nSymmetry = GENERAL;
+        }
+        else if (laBanner[4].equals("symmetric"))
+        {
+            loHeader.m_nSymmetry = SYMMETRIC;
+        }
+        else if (laBanner[4].equals("skew-symmetric"))
+        {
+            loHeader.m_nSymmetry = SKEW_SYMMETRIC;
+        }
+        else
+        {
+            throw new IOException("Unsupported Matrix Market symmetry " + laBanner[4]);
+        }
+
+        if (!loChunk.skipBlankAndCommentLines('%'))
+        {
+            throw new IOException("Missing Matrix Market size line");
+        }
+        long lnRows = loChunk.nextLong();
+        long lnColumns = loChunk.nextLong();
+        loHeader.m_nEntries = loChunk.nextLong();
+        if (lnRows < 0 || lnRows >= Integer.MAX_VALUE || lnColumns < 0 || lnColumns >= Integer.MAX_VALUE || loHeader.m_nEntries < 0)
+        {
+            throw new IOException("Invalid Matrix Market size line");
+        }
+        loHeader.m_nRows = (int)lnRows;
+        loHeader.m_nColumns = (int)lnColumns;
+        loChunk.skipLine();
+        loHeader.m_nDataStart = loChunk.getFileOffset();
+        return loHeader;
+    }
+
+    /**
+     * Parses a one based index and converts it to zero based
+     * @param toChunk the chunk to parse from
+     * @param tnSize the number of valid indices
+     * @return the zero based index
+     * @throws IOException if the index is missing or out of range
+     */
+    private static int nextIndex(MappedTextChunk toChunk, int tnSize)
+            throws IOException
+    {
+        long lnIndex = toChunk.nextLong();
+        if (lnIndex < 1 || lnIndex > tnSize)
+        {
+            throw new IOException("Index " + lnIndex + " out of range before byte " + toChunk.getFileOffset());
+        }
+        return (int)(lnIndex - 1);
+    }
+
+    /**
+     * Counts the values that each entry in the chunk contributes to its rows
+     * @param toChunk the chunk to count
+     * @param toHeader the header of the file
+     * @param toCounts the counts for each row
+     * @return the number of entries in the chunk
+     * @throws IOException if the chunk could not be parsed
+     */
+    private static long countEntries(MappedTextChunk toChunk, Header toHeader, AtomicIntegerArray toCounts)
+            throws IOException
+    {
+        long lnEntries = 0;
+        while (toChunk.skipBlankAndCommentLines('%'))
+        {
+            int lnRow = nextIndex(toChunk, toHeader.m_nRows);
+            int lnColumn = nextIndex(toChunk, toHeader.m_nColumns);
+            toCounts.incrementAndGet(lnRow);
+            if (toHeader.m_nSymmetry != GENERAL && lnRow != lnColumn)
+            {
+                toCounts.incrementAndGet(lnColumn);
+            }
+            toChunk.skipLine();
+            lnEntries++;
+        }
+        return lnEntries;
+    }
+
+    /**
+     * Parses each entry in the chunk into the next free slot of its row
+     * @param toChunk the chunk to parse
+     * @param toHeader the header of the file
+     * @param toCursors the next free slot in each row
+     * @param taColumns the column indices to fill
+     * @param taValues the values to fill
+     * @throws IOException if the chunk could not be parsed
+     */
+    private static void fillEntries(MappedTextChunk toChunk, Header toHeader, AtomicIntegerArray toCursors, int[] taColumns, double[] taValues)
+            throws IOException
+    {
+        while (toChunk.skipBlankAndCommentLines('%'))
+        {
+            int lnRow = nextIndex(toChunk, toHeader.m_nRows);
+            int lnColumn = nextIndex(toChunk, toHeader.m_nColumns);
+            double lnValue = toHeader.m_lPattern ? 1 : toChunk.nextDouble();
+
+            int lnPosition = toCursors.getAndIncrement(lnRow);
+            taColumns[lnPosition] = lnColumn;
+            taValues[lnPosition] = lnValue;
+            if (toHeader.m_nSymmetry != GENERAL && lnRow != lnColumn)
+            {
+                lnPosition = toCursors.getAndIncrement(lnColumn);
+                taColumns[lnPosition] = lnRow;
+                taValues[lnPosition] = toHeader.m_nSymmetry == SKEW_SYMMETRIC ? -lnValue : lnValue;
+            }
+            toChunk.skipLine();
+        }
+    }
+
+    /**
+     * Sorts the values of a row by column
+     * @param taColumns the column indices
+     * @param taValues the values
+     * @param tnStart the first position of the row
+     * @param tnEnd the position after the last value of the row
+     */
+    private static void sortRow(int[] taColumns, double[] taValues, int tnStart, int tnEnd)
+    {
+        // Rows are usually already in order
+        int lnUnsorted = tnStart + 1;
+        while (lnUnsorted < tnEnd && taColumns[lnUnsorted - 1] <= taColumns[lnUnsorted])
+        {
+            lnUnsorted++;
+        }
+        if (lnUnsorted >= tnEnd)
+        {
+            return;
+        }
+
+        if (tnEnd - tnStart <= INSERTION_SORT_THRESHOLD)
+        {
+            for (int i=lnUnsorted; i<tnEnd; i++)
+            {
+                int lnColumn = taColumns[i];
+                double lnValue = taValues[i];
+                int j = i - 1;
+                while (j >= tnStart && taColumns[j] > lnColumn)
+                {
+                    taColumns[j + 1] = taColumns[j];
+                    taValues[j + 1] = taValues[j];
+                    j--;
+                }
+                taColumns[j + 1] = lnColumn;
+                taValues[j + 1] = lnValue;
+            }
+            return;
+        }
+
+        int lnPivot = taColumns[tnStart + (tnEnd - tnStart) / 2];
+        int lnLow = tnStart;
+        int lnHigh = tnEnd - 1;
+        while (lnLow <= lnHigh)
+        {
+            while (taColumns[lnLow] < lnPivot)
+            {
+                lnLow++;
+            }
+            while (taColumns[lnHigh] > lnPivot)
+            {
+                lnHigh--;
+            }
+            if (lnLow <= lnHigh)
+            {
+                int lnColumn = taColumns[lnLow];
+                taColumns[lnLow] = taColumns[lnHigh];
+                taColumns[lnHigh] = lnColumn;
+                double lnValue = taValues[lnLow];
+                taValues[lnLow] = taValues[lnHigh];
+                taValues[lnHigh] = lnValue;
+                lnLow++;
+                lnHigh--;
+            }
+        }
+        sortRow(taColumns, taValues, tnStart, lnHigh + 1);
+        sortRow(taColumns, taValues, lnLow, tnEnd);
+    }
+}
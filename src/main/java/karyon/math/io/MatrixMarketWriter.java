@@ -0,0 +1,137 @@
+package karyon.math.io;
+
+import karyon.math.collections.SparseDoubleMatrix;
+import karyon.math.collections.SparseDoubleVector;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes matrices and vectors as Matrix Market coordinate files.
+ * Values are streamed to the file row by row so no copy of the
+ * data is built in memory.
+ */
+public class MatrixMarketWriter
+    extends karyon.Object
+{
+    private static final String BANNER = "%%MatrixMarket matrix coordinate real general";
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int EXPORT_CHUNK_SIZE = 4096;
+
+    /**
+     * Writes the matrix to the file, replacing any existing contents
+     * @param toMatrix the matrix to write
+     * @param toFile the file to write to
+     * @throws IOException if the file could not be written
+     */
+    public void write(SparseDoubleMatrix toMatrix, File toFile)
+            throws IOException
+    {
+        Writer loWriter = open(toFile);
+        try
+        {
+            writeHeader(loWriter, toMatrix.getRowCount(), toMatrix.getColumnCount(), toMatrix.getNonZeroCount());
+            for (int lnRow = 0, lnRows = toMatrix.getRowCount(); lnRow < lnRows; lnRow++)
+            {
+                for (int i=toMatrix.getRowStart(lnRow), lnEnd = toMatrix.getRowEnd(lnRow); i<lnEnd; i++)
+                {
+                    writeEntry(loWriter, lnRow, toMatrix.getColumnIndex(i), toMatrix.getValue(i));
+                }
+            }
+        }
+        finally
+        {
+            loWriter.close();
+        }
+    }
+
+    /**
+     * Writes the vector to the file as a single row if it is horizontal,
+     * or a single column if it is vertical.  Only non zero values are written.
+     * @param toVector the vector to write
+     * @param toFile the file to write to
+     * @throws IOException if the file could not be written
+     */
+    public void write(SparseDoubleVector toVector, File toFile)
+            throws IOException
+    {
+        Writer loWriter = open(toFile);
+        try
+        {
+            int lnSize = toVector.size();
+            boolean llHorizontal = toVector.isHorizontal();
+            writeHeader(loWriter, llHorizontal ? 1 : lnSize, llHorizontal ? lnSize : 1, toVector.getNonZeroCount());
+            SparseDoubleVector.Cursor loCursor = new SparseDoubleVector.Cursor();
+            int[] laIndices = new int[EXPORT_CHUNK_SIZE];
+            double[] laValues = new double[EXPORT_CHUNK_SIZE];
+            int lnCount;
+            while ((lnCount = toVector.exportNonZeros(loCursor, laIndices, laValues, 0, EXPORT_CHUNK_SIZE)) > 0)
+            {
+                for (int i=0; i<lnCount; i++)
+                {
+                    writeEntry(loWriter, llHorizontal ? 0 : laIndices[i], llHorizontal ? laIndices[i] : 0, laValues[i]);
+                }
+            }
+        }
+        finally
+        {
+            loWriter.close();
+        }
+    }
+
+    /**
+     * Opens a buffered writer on the file
+     * @param toFile the file to open
+     * @return the writer
+     * @throws IOException if the file could not be opened
+     */
+    private static Writer open(File toFile)
+            throws IOException
+    {
+        return new BufferedWriter(new OutputStreamWriter(new FileOutputStream(toFile), "US-ASCII"), BUFFER_SIZE);
+    }
+
+    /**
+     * Writes the banner and size line
+     * @param toWriter the writer to write to
+     * @param tnRows the number of rows
+     * @param tnColumns the number of columns
+     * @param tnEntries the number of entries that will follow
+     * @throws IOException if the header could not be written
+     */
+    private static void writeHeader(Writer toWriter, long tnRows, long tnColumns, long tnEntries)
+            throws IOException
+    {
+        toWriter.write(BANNER);
+        toWriter.write('\n');
+        toWriter.write(Long.toString(tnRows));
+        toWriter.write(' ');
+        toWriter.write(Long.toString(tnColumns));
+        toWriter.write(' ');
+        toWriter.write(Long.toString(tnEntries));
+        toWriter.write('\n');
+    }
+
+    /**
+     * Writes a single entry using one based indices
+     * @param toWriter the writer to write to
+     * @param tnRow the zero based row
+     * @param tnColumn the zero based column
+     * @param tnValue the value
+     * @throws IOException if the entry could not be written
+     */
+    private static void writeEntry(Writer toWriter, int tnRow, int tnColumn, double tnValue)
+            throws IOException
+    {
+        toWriter.write(Integer.toString(tnRow + 1));
+        toWriter.write(' ');
+        toWriter.write(Integer.toString(tnColumn + 1));
+        toWriter.write(' ');
+        toWriter.write(Double.toString(tnValue));
+        toWriter.write('\n');
+    }
+}
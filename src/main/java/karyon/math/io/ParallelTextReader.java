@@ -0,0 +1,72 @@
+package karyon.math.io;
+
+import karyon.exceptions.InvalidParameterException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Base for readers which parse a memory mapped text file on multiple threads
+ */
+abstract class ParallelTextReader
+    extends karyon.Object
+{
+    private int m_nThreads;
+    private long m_nMinChunkSize;
+
+    /**
+     * Creates a new reader which parses with the specified number of threads
+     * @param tnThreads the number of threads to parse with, must be > 0
+     */
+    protected ParallelTextReader(int tnThreads)
+    {
+        if (tnThreads <= 0)
+        {
+            throw new InvalidParameterException("tnThreads", tnThreads);
+        }
+        m_nThreads = tnThreads;
+        m_nMinChunkSize = ChunkedFile.MIN_CHUNK_SIZE;
+    }
+
+    /**
+     * Gets the number of threads used for parsing
+     * @return the number of threads
+     */
+    public int getThreads()
+    {
+        return m_nThreads;
+    }
+
+    /**
+     * Sets the smallest chunk of the file worth parsing on a separate thread,
+     * small values are only useful for testing
+     * @param tnMinChunkSize the smallest chunk size in bytes
+     */
+    void setMinChunkSize(long tnMinChunkSize)
+    {
+        m_nMinChunkSize = tnMinChunkSize;
+    }
+
+    /**
+     * Splits the file into chunks for parsing
+     * @param toFile the file to split
+     * @param tnStart the offset to start splitting from
+     * @return the chunks in file order
+     * @throws java.io.IOException if the file could not be mapped
+     */
+    protected MappedTextChunk[] split(ChunkedFile toFile, long tnStart)
+            throws java.io.IOException
+    {
+        return toFile.split(tnStart, m_nThreads, m_nMinChunkSize);
+    }
+
+    /**
+     * Creates the executor the chunks are parsed on, the caller must shut it down
+     * @param tnChunks the number of chunks that will be parsed
+     * @return the executor
+     */
+    protected ExecutorService createExecutor(int tnChunks)
+    {
+        return Executors.newFixedThreadPool(Math.max(1, Math.min(m_nThreads, tnChunks)));
+    }
+}
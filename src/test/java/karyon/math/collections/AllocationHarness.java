@@ -0,0 +1,159 @@
+package karyon.math.collections;
+
+import karyon.testing.KaryonTest;
+import org.junit.Assume;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.*;
+
+/**
+ * Base for tests which assert allocation budgets and coarse latency bounds
+ * of collection operations, so regressions are caught by the build.
+ *
+ * Allocation is measured with the per thread allocation counter of the
+ * HotSpot ThreadMXBean, tests are skipped on JVMs which do not provide it.
+ */
+public abstract class AllocationHarness
+        extends KaryonTest
+{
+    /**
+     * The number of times each measurement is repeated, the smallest result is used
+     */
+    private static final int TRIALS = 5;
+
+    /**
+     * An operation to be measured
+     */
+    protected interface Operation
+    {
+        /**
+         * Runs the operation once
+         * @param tnIteration the iteration number
+         */
+        void run(int tnIteration);
+    }
+
+    private com.sun.management.ThreadMXBean m_oThreadBean;
+    private long m_nOverhead;
+
+    /**
+     * Value written by operations so their results are not optimised away
+     */
+    protected double m_nSink;
+
+    /**
+     * Gets the thread bean, skipping the test if allocation can not be measured
+     * @return the thread bean
+     */
+    private com.sun.management.ThreadMXBean getThreadBean()
+    {
+        if (m_oThreadBean == null)
+        {
+            java.lang.management.ThreadMXBean loBean = ManagementFactory.getThreadMXBean();
+            Assume.assumeTrue(loBean instanceof com.sun.management.ThreadMXBean);
+            m_oThreadBean = (com.sun.management.ThreadMXBean)loBean;
+            Assume.assumeTrue(m_oThreadBean.isThreadAllocatedMemorySupported());
+            if (!m_oThreadBean.isThreadAllocatedMemoryEnabled())
+            {
+                m_oThreadBean.setThreadAllocatedMemoryEnabled(true);
+            }
+
+            // Reading the counter may allocate, measure that so it can be removed
+            m_nOverhead = Long.MAX_VALUE;
+            long lnThread = Thread.currentThread().getId();
+            for (int i=0; i<TRIALS; i++)
+            {
+                long lnStart = m_oThreadBean.getThreadAllocatedBytes(lnThread);
+                long lnEnd = m_oThreadBean.getThreadAllocatedBytes(lnThread);
+                m_nOverhead = Math.min(m_nOverhead, lnEnd - lnStart);
+            }
+        }
+        return m_oThreadBean;
+    }
+
+    /**
+     * Measures the bytes allocated by the current thread while running the operation
+     * @param toOperation the operation to measure
+     * @param tnIterations the number of times to run the operation per trial
+     * @return the smallest number of bytes allocated over the trials
+     */
+    protected long measureAllocation(Operation toOperation, int tnIterations)
+    {
+        com.sun.management.ThreadMXBean loBean = getThreadBean();
+        long lnThread = Thread.currentThread().getId();
+        long lnBest = Long.MAX_VALUE;
+        for (int lnTrial = 0; lnTrial < TRIALS; lnTrial++)
+        {
+            long lnStart = loBean.getThreadAllocatedBytes(lnThread);
+            for (int i=0; i<tnIterations; i++)
+            {
+                toOperation.run(i);
+            }
+            long lnEnd = loBean.getThreadAllocatedBytes(lnThread);
+            lnBest = Math.min(lnBest, Math.max(0, lnEnd - lnStart - m_nOverhead));
+        }
+        return lnBest;
+    }
+
+    /**
+     * Measures the average time taken by the operation
+     * @param toOperation the operation to measure
+     * @param tnIterations the number of times to run the operation per trial
+     * @return the smallest average time per operation over the trials in nanoseconds
+     */
+    protected double measureNanos(Operation toOperation, int tnIterations)
+    {
+        double lnBest = Double.MAX_VALUE;
+        for (int lnTrial = 0; lnTrial < TRIALS; lnTrial++)
+        {
+            long lnStart = System.nanoTime();
+            for (int i=0; i<tnIterations; i++)
+            {
+                toOperation.run(i);
+            }
+            lnBest = Math.min(lnBest, (double)(System.nanoTime() - lnStart) / tnIterations);
+        }
+        return lnBest;
+    }
+
+    /**
+     * Asserts that the operation allocates no more than the budget
+     * @param tcName the name of the operation, used in the failure message
+     * @param toOperation the operation
+     * @param tnIterations the number of times to run the operation
+     * @param tnBudget the number of bytes the iterations may allocate in total
+     */
+    protected void assertAllocation(String tcName, Operation toOperation, int tnIterations, long tnBudget)
+    {
+        long lnAllocated = measureAllocation(toOperation, tnIterations);
+        assertTrue(tcName + " allocated " + lnAllocated + " bytes in " + tnIterations + " iterations, budget is " + tnBudget,
+                lnAllocated <= tnBudget);
+    }
+
+    /**
+     * Asserts that the operation allocates nothing
+     * @param tcName the name of the operation, used in the failure message
+     * @param toOperation the operation
+     * @param tnIterations the number of times to run the operation
+     */
+    protected void assertAllocationFree(String tcName, Operation toOperation, int tnIterations)
+    {
+        assertAllocation(tcName, toOperation, tnIterations, 0);
+    }
+
+    /**
+     * Asserts that the operation completes within the average latency bound after warming up
+     * @param tcName the name of the operation, used in the failure message
+     * @param toOperation the operation
+     * @param tnIterations the number of times to run the operation
+     * @param tnMaxNanos the largest acceptable average time per operation in nanoseconds
+     */
+    protected void assertLatency(String tcName, Operation toOperation, int tnIterations, double tnMaxNanos)
+    {
+        measureNanos(toOperation, tnIterations);
+        double lnNanos = measureNanos(toOperation, tnIterations);
+        assertTrue(tcName + " took " + lnNanos + "ns per operation, bound is " + tnMaxNanos + "ns",
+                lnNanos <= tnMaxNanos);
+    }
+}
@@ -0,0 +1,266 @@
+package karyon.math.collections;
+
+import karyon.exceptions.InvalidParameterException;
+import karyon.testing.KaryonTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class DiskBackedSparseDoubleMatrixTest
+        extends KaryonTest
+{
+    /**
+     * Creates an empty temporary directory for the tiles
+     * @return the directory
+     */
+    private File createDirectory() throws Exception
+    {
+        File loDirectory = File.createTempFile("karyon", "tiles");
+        loDirectory.delete();
+        loDirectory.mkdirs();
+        loDirectory.deleteOnExit();
+        return loDirectory;
+    }
+
+    /**
+     * Creates a random matrix with roughly tnPerRow values in each row
+     * @param tnRows the number of rows
+     * @param tnColumns the number of columns
+     * @param tnPerRow the average number of values per row
+     * @return the matrix
+     */
+    private SparseDoubleMatrix createMatrix(int tnRows, int tnColumns, int tnPerRow)
+    {
+        Random loRandom = new Random(5);
+        int[] laRowPointers = new int[tnRows + 1];
+        int[] laColumns = new int[tnRows * tnColumns];
+        double[] laValues = new double[tnRows * tnColumns];
+        int lnCount = 0;
+        for (int i=0; i<tnRows; i++)
+        {
+            for (int j=0; j<tnColumns; j++)
+            {
+                if (loRandom.nextInt(tnColumns) < tnPerRow)
+                {
+                    laColumns[lnCount] = j;
+                    laValues[lnCount++] = loRandom.nextGaussian();
+                }
+            }
+            laRowPointers[i + 1] = lnCount;
+        }
+        return new SparseDoubleMatrix(tnRows, tnColumns, laRowPointers, laColumns, laValues);
+    }
+
+    @Test
+    public void testConstructor() throws Exception
+    {
+        startMarker();
+        final File loDirectory = createDirectory();
+        DiskBackedSparseDoubleMatrix loMatrix = new DiskBackedSparseDoubleMatrix(loDirectory, 10, 4096);
+        assertEquals(0, loMatrix.getRowCount());
+        assertEquals(10, loMatrix.getColumnCount());
+        assertEquals(4096, loMatrix.getMemoryLimit());
+        assertEquals(0, loMatrix.getTileCount());
+
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        new DiskBackedSparseDoubleMatrix(loDirectory, 10, DiskBackedSparseDoubleMatrix.MIN_MEMORY_LIMIT - 1);
+                    }
+                }));
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        new DiskBackedSparseDoubleMatrix(loDirectory, -1, 4096);
+                    }
+                }));
+    }
+
+    @Test
+    public void testAppendRow() throws Exception
+    {
+        startMarker();
+        DiskBackedSparseDoubleMatrix loMatrix = new DiskBackedSparseDoubleMatrix(createDirectory(), 4, 1024);
+        loMatrix.appendRow(new int[]{0, 3}, new double[]{1, 2}, 2);
+        loMatrix.appendRow(new int[0], new double[0], 0);
+        loMatrix.appendRow(new int[]{1, 2, 3}, new double[]{3, 4, 5, 99}, 3);
+        assertEquals(3, loMatrix.getRowCount());
+        assertEquals(5, loMatrix.getNonZeroCount());
+
+        double[] laResult = loMatrix.multiply(new double[]{1, 1, 1, 1});
+        assertEquals(3, laResult[0], 0);
+        assertEquals(0, laResult[1], 0);
+        assertEquals(12, laResult[2], 0);
+
+        // Rows must be in column order and within the matrix
+        try
+        {
+            loMatrix.appendRow(new int[]{2, 1}, new double[]{1, 1}, 2);
+            fail("Expected an InvalidParameterException");
+        }
+        catch (InvalidParameterException ex)
+        {
+            // Expected
+        }
+        try
+        {
+            loMatrix.appendRow(new int[]{4}, new double[]{1}, 1);
+            fail("Expected an InvalidParameterException");
+        }
+        catch (InvalidParameterException ex)
+        {
+            // Expected
+        }
+        // A row larger than a tile can not be stored
+        try
+        {
+            loMatrix.appendRow(new int[100], new double[100], 100);
+            fail("Expected an InvalidParameterException");
+        }
+        catch (InvalidParameterException ex)
+        {
+            // Expected
+        }
+        loMatrix.delete();
+        assertEquals(0, loMatrix.getRowCount());
+    }
+
+    @Test
+    public void testMultiply_vector() throws Exception
+    {
+        startMarker();
+        SparseDoubleMatrix loMatrix = createMatrix(500, 60, 6);
+        DiskBackedSparseDoubleMatrix loDiskMatrix = DiskBackedSparseDoubleMatrix.create(loMatrix, createDirectory(), 4096);
+        assertEquals(500, loDiskMatrix.getRowCount());
+        assertEquals(loMatrix.getNonZeroCount(), loDiskMatrix.getNonZeroCount());
+        assertTrue(loDiskMatrix.getTileCount() > 2);
+
+        double[] laVector = new double[60];
+        for (int i=0; i<laVector.length; i++)
+        {
+            laVector[i] = i - 30;
+        }
+        double[] laExpected = loMatrix.multiply(laVector);
+        // Multiply twice to check the buffers are reused correctly
+        for (int lnPass = 0; lnPass < 2; lnPass++)
+        {
+            double[] laResult = loDiskMatrix.multiply(laVector);
+            assertEquals(laExpected.length, laResult.length);
+            for (int i=0; i<laExpected.length; i++)
+            {
+                assertEquals(laExpected[i], laResult[i], 0);
+            }
+        }
+        assertTrue(loDiskMatrix.getLastBytesRead() > 4096);
+        assertTrue(loDiskMatrix.getLastElapsedNanos() > 0);
+        assertTrue(loDiskMatrix.getLastThroughput() > 0);
+        loDiskMatrix.delete();
+    }
+
+    @Test
+    public void testSharedDirectory() throws Exception
+    {
+        startMarker();
+        File loDirectory = createDirectory();
+        // A tile left from an earlier run must not be overwritten
+        File loOldTile = new File(loDirectory, "tile-000000.bin");
+        java.io.FileOutputStream loStream = new java.io.FileOutputStream(loOldTile);
+        loStream.write(new byte[]{1, 2, 3});
+        loStream.close();
+
+        SparseDoubleMatrix loMatrix1 = createMatrix(200, 40, 4);
+        SparseDoubleMatrix loMatrix2 = createMatrix(200, 40, 12);
+        DiskBackedSparseDoubleMatrix loDiskMatrix1 = DiskBackedSparseDoubleMatrix.create(loMatrix1, loDirectory, 2048);
+        DiskBackedSparseDoubleMatrix loDiskMatrix2 = DiskBackedSparseDoubleMatrix.create(loMatrix2, loDirectory, 2048);
+        assertEquals(3, loOldTile.length());
+
+        double[] laVector = new double[40];
+        java.util.Arrays.fill(laVector, 1);
+        assertArrayEquals(loMatrix1.multiply(laVector), loDiskMatrix1.multiply(laVector), 0);
+        assertArrayEquals(loMatrix2.multiply(laVector), loDiskMatrix2.multiply(laVector), 0);
+
+        loDiskMatrix1.delete();
+        assertArrayEquals(loMatrix2.multiply(laVector), loDiskMatrix2.multiply(laVector), 0);
+        loDiskMatrix2.delete();
+        assertTrue(loOldTile.delete());
+    }
+
+    @Test
+    public void testClose() throws Exception
+    {
+        startMarker();
+        SparseDoubleMatrix loMatrix = createMatrix(200, 40, 4);
+        File loDirectory = createDirectory();
+        DiskBackedSparseDoubleMatrix loDiskMatrix = DiskBackedSparseDoubleMatrix.create(loMatrix, loDirectory, 2048);
+        int lnThreads = countReaderThreads();
+
+        // Repeated products share a single read ahead thread
+        double[] laVector = new double[40];
+        java.util.Arrays.fill(laVector, 1);
+        for (int i=0; i<20; i++)
+        {
+            assertArrayEquals(loMatrix.multiply(laVector), loDiskMatrix.multiply(laVector), 0);
+        }
+        assertEquals(lnThreads + 1, countReaderThreads());
+
+        loDiskMatrix.close();
+        assertEquals(0, loDiskMatrix.getTileCount());
+        assertEquals(0, loDirectory.listFiles().length);
+        for (int i=0; i<100 && countReaderThreads() > lnThreads; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals(lnThreads, countReaderThreads());
+    }
+
+    /**
+     * Counts the live read ahead threads
+     * @return the number of read ahead threads
+     */
+    private int countReaderThreads()
+    {
+        int lnCount = 0;
+        for (Thread loThread : Thread.getAllStackTraces().keySet())
+        {
+            if (loThread.isAlive() && loThread.getName().equals("DiskBackedSparseDoubleMatrix-reader"))
+            {
+                lnCount++;
+            }
+        }
+        return lnCount;
+    }
+
+    @Test
+    public void testMultiply_matrix() throws Exception
+    {
+        startMarker();
+        SparseDoubleMatrix loMatrix = createMatrix(300, 40, 5);
+        DiskBackedSparseDoubleMatrix loDiskMatrix = DiskBackedSparseDoubleMatrix.create(loMatrix, createDirectory(), 2048);
+        double[][] laDense = new double[40][3];
+        for (int i=0; i<laDense.length; i++)
+        {
+            laDense[i][0] = 1;
+            laDense[i][1] = i;
+            laDense[i][2] = -i * 0.5;
+        }
+        double[][] laExpected = loMatrix.multiply(laDense);
+        double[][] laResult = loDiskMatrix.multiply(laDense);
+        for (int i=0; i<laExpected.length; i++)
+        {
+            for (int j=0; j<3; j++)
+            {
+                assertEquals(laExpected[i][j], laResult[i][j], 0);
+            }
+        }
+        loDiskMatrix.delete();
+    }
+}
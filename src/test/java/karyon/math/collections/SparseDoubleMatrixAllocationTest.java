@@ -0,0 +1,71 @@
+package karyon.math.collections;
+
+import org.junit.Test;
+
+/**
+ * Allocation budgets and latency bounds for SparseDoubleMatrix
+ */
+public class SparseDoubleMatrixAllocationTest
+        extends AllocationHarness
+{
+    private static final int ITERATIONS = 100000;
+    private static final double MAX_GET_NANOS = 1000;
+
+    /**
+     * Creates a banded matrix with three values in each row
+     * @param tnRows the number of rows
+     * @return the matrix
+     */
+    private SparseDoubleMatrix createMatrix(int tnRows)
+    {
+        int[] laRowPointers = new int[tnRows + 1];
+        int[] laColumns = new int[tnRows * 3];
+        double[] laValues = new double[tnRows * 3];
+        int lnCount = 0;
+        for (int i=0; i<tnRows; i++)
+        {
+            for (int j=Math.max(0, i - 1); j<=Math.min(tnRows - 1, i + 1); j++)
+            {
+                laColumns[lnCount] = j;
+                laValues[lnCount++] = i - j + 2;
+            }
+            laRowPointers[i + 1] = lnCount;
+        }
+        return new SparseDoubleMatrix(tnRows, tnRows, laRowPointers, laColumns, laValues);
+    }
+
+    @Test
+    public void testGetDouble() throws Exception
+    {
+        startMarker();
+        final SparseDoubleMatrix loMatrix = createMatrix(1000);
+        Operation loGet = new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                m_nSink += loMatrix.getDouble(tnIteration % 1000, (tnIteration * 7) % 1000);
+            }
+        };
+        assertAllocationFree("getDouble", loGet, ITERATIONS);
+        assertLatency("getDouble", loGet, ITERATIONS, MAX_GET_NANOS);
+    }
+
+    @Test
+    public void testMultiply() throws Exception
+    {
+        startMarker();
+        final SparseDoubleMatrix loMatrix = createMatrix(1000);
+        final double[] laVector = new double[1000];
+        java.util.Arrays.fill(laVector, 1);
+        // Only the result may be allocated
+        assertAllocation("multiply", new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                m_nSink += loMatrix.multiply(laVector)[tnIteration % 1000];
+            }
+        }, 100, 100 * (8 * 1000 + 64));
+    }
+}
@@ -0,0 +1,124 @@
+package karyon.math.collections;
+
+import karyon.exceptions.InvalidParameterException;
+import karyon.testing.KaryonTest;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class SparseDoubleMatrixTest
+        extends KaryonTest
+{
+    @Test
+    public void testConstructor_int_int() throws Exception
+    {
+        startMarker();
+        SparseDoubleMatrix loMatrix = new SparseDoubleMatrix(3, 4);
+        assertEquals(3, loMatrix.getRowCount());
+        assertEquals(4, loMatrix.getColumnCount());
+        assertEquals(0, loMatrix.getNonZeroCount());
+        assertEquals(0, loMatrix.getDouble(2, 3), 0);
+
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        new SparseDoubleMatrix(-1, 4);
+                    }
+                }));
+    }
+
+    @Test
+    public void testConstructor_csr() throws Exception
+    {
+        startMarker();
+        // [1 0 2]
+        // [0 0 0]
+        // [0 3 0]
+        SparseDoubleMatrix loMatrix = new SparseDoubleMatrix(3, 3, new int[]{0, 2, 2, 3}, new int[]{0, 2, 1}, new double[]{1, 2, 3});
+        assertEquals(3, loMatrix.getNonZeroCount());
+        assertEquals(2, loMatrix.getRowStart(1));
+        assertEquals(2, loMatrix.getRowEnd(1));
+        assertEquals(1, loMatrix.getColumnIndex(2));
+        assertEquals(3, loMatrix.getValue(2), 0);
+
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        new SparseDoubleMatrix(3, 3, new int[]{0, 2, 3}, new int[]{0, 2, 1}, new double[]{1, 2, 3});
+                    }
+                }));
+    }
+
+    @Test
+    public void testGetDouble() throws Exception
+    {
+        startMarker();
+        final SparseDoubleMatrix loMatrix = new SparseDoubleMatrix(3, 3, new int[]{0, 2, 2, 3}, new int[]{0, 2, 1}, new double[]{1, 2, 3});
+        assertEquals(1, loMatrix.getDouble(0, 0), 0);
+        assertEquals(0, loMatrix.getDouble(0, 1), 0);
+        assertEquals(2, loMatrix.getDouble(0, 2), 0);
+        assertEquals(0, loMatrix.getDouble(1, 1), 0);
+        assertEquals(3, loMatrix.getDouble(2, 1), 0);
+
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        loMatrix.getDouble(3, 0);
+                    }
+                }));
+    }
+
+    @Test
+    public void testMultiply_vector() throws Exception
+    {
+        startMarker();
+        final SparseDoubleMatrix loMatrix = new SparseDoubleMatrix(3, 3, new int[]{0, 2, 2, 3}, new int[]{0, 2, 1}, new double[]{1, 2, 3});
+        double[] laResult = loMatrix.multiply(new double[]{1, 2, 3});
+        assertEquals(3, laResult.length);
+        assertEquals(7, laResult[0], 0);
+        assertEquals(0, laResult[1], 0);
+        assertEquals(6, laResult[2], 0);
+
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        loMatrix.multiply(new double[2]);
+                    }
+                }));
+    }
+
+    @Test
+    public void testMultiply_matrix() throws Exception
+    {
+        startMarker();
+        final SparseDoubleMatrix loMatrix = new SparseDoubleMatrix(3, 3, new int[]{0, 2, 2, 3}, new int[]{0, 2, 1}, new double[]{1, 2, 3});
+        double[][] laResult = loMatrix.multiply(new double[][]{{1, 0}, {2, 1}, {3, -1}});
+        assertEquals(3, laResult.length);
+        assertEquals(7, laResult[0][0], 0);
+        assertEquals(-2, laResult[0][1], 0);
+        assertEquals(0, laResult[1][0], 0);
+        assertEquals(6, laResult[2][0], 0);
+        assertEquals(3, laResult[2][1], 0);
+
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        loMatrix.multiply(new double[][]{{1, 0}, {2}, {3, -1}});
+                    }
+                }));
+    }
+}
@@ -0,0 +1,207 @@
+package karyon.math.collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Allocation budgets and latency bounds for SparseDoubleVector.
+ * The latency bounds are deliberately coarse so that they only
+ * fail on real regressions, not on a slow build machine.
+ */
+public class SparseDoubleVectorAllocationTest
+        extends AllocationHarness
+{
+    private static final int ITERATIONS = 100000;
+    private static final double MAX_GET_NANOS = 1000;
+    private static final double MAX_ADD_NANOS = 1000;
+    private static final double MAX_EXPORT_NANOS_PER_VALUE = 200;
+    private static final long MAX_SNAPSHOT_BYTES = 1024;
+    private static final long MAX_CONSTRUCTOR_OVERHEAD_BYTES = 1024;
+
+    /**
+     * Creates a vector with a dense run followed by several sparse runs
+     * @return the vector
+     */
+    private SparseDoubleVector createVector()
+    {
+        SparseDoubleVector loVector = new SparseDoubleVector(1024, .75f, true);
+        for (int i=0; i<512; i++)
+        {
+            loVector.addDouble(i % 7);
+        }
+        long[] laIndices = new long[64];
+        double[] laValues = new double[64];
+        for (int i=0; i<laIndices.length; i++)
+        {
+            laIndices[i] = 1000 + (i / 8) * 100 + i % 8;
+            laValues[i] = i + 1;
+        }
+        loVector.importNonZeros(laIndices, laValues, 0, laIndices.length);
+        return loVector;
+    }
+
+    @Test
+    public void testConstructor() throws Exception
+    {
+        startMarker();
+        // Construction only allocates the storage, sized by the fill factor
+        final double[] laData = new double[100000];
+        assertAllocation("constructor", new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                m_nSink += new SparseDoubleVector(laData).getCapacity();
+            }
+        }, 10, 10 * (8 * (long)Math.ceil(laData.length / .75f) + MAX_CONSTRUCTOR_OVERHEAD_BYTES));
+    }
+
+    @Test
+    public void testGetDouble() throws Exception
+    {
+        startMarker();
+        final SparseDoubleVector loVector = createVector();
+        final int lnSize = loVector.size();
+        Operation loGet = new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                m_nSink += loVector.getDouble(tnIteration % lnSize);
+            }
+        };
+        assertAllocationFree("getDouble", loGet, ITERATIONS);
+        assertLatency("getDouble", loGet, ITERATIONS, MAX_GET_NANOS);
+    }
+
+    @Test
+    public void testExportNonZeros() throws Exception
+    {
+        startMarker();
+        final SparseDoubleVector loVector = createVector();
+        final SparseDoubleVector.Cursor loCursor = new SparseDoubleVector.Cursor();
+        final int[] laIndices = new int[32];
+        final double[] laValues = new double[32];
+        final java.nio.DoubleBuffer loBuffer = java.nio.ByteBuffer.allocateDirect(8 * 32).asDoubleBuffer();
+        Operation loExport = new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                loCursor.reset();
+                int lnCount;
+                while ((lnCount = loVector.exportNonZeros(loCursor, laIndices, laValues, 0, laIndices.length)) > 0)
+                {
+                    m_nSink += laValues[lnCount - 1];
+                }
+                loCursor.reset();
+                do
+                {
+                    loBuffer.clear();
+                }
+                while (loVector.exportNonZeros(loCursor, laIndices, 0, loBuffer) > 0);
+            }
+        };
+        assertAllocationFree("exportNonZeros", loExport, ITERATIONS / 100);
+        assertLatency("exportNonZeros", loExport, ITERATIONS / 100, MAX_EXPORT_NANOS_PER_VALUE * 2 * loVector.count());
+    }
+
+    @Test
+    public void testAddDouble() throws Exception
+    {
+        startMarker();
+        // With enough capacity nothing should be allocated
+        final SparseDoubleVector loVector = new SparseDoubleVector(ITERATIONS * 12, .75f, true);
+        Operation loAdd = new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                loVector.addDouble(tnIteration);
+            }
+        };
+        assertAllocationFree("addDouble", loAdd, ITERATIONS);
+        loVector.setTrackAggregates(true);
+        assertAllocationFree("addDouble with aggregates", loAdd, ITERATIONS);
+
+        // When resizing only the new storage may be allocated.  The capacity grows
+        // geometrically by 1 / fill factor so all of the arrays allocated along the
+        // way are at most 1 / (1 - fill factor) times the final capacity
+        final SparseDoubleVector loGrowing = new SparseDoubleVector(10, .75f, true);
+        Operation loGrow = new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                loGrowing.addDouble(tnIteration);
+            }
+        };
+        long lnAllocated = measureAllocation(loGrow, ITERATIONS);
+        long lnBudget = 4 * 8 * loGrowing.getCapacity() + 16 * 64;
+        assertTrue("addDouble allocated " + lnAllocated + " bytes while resizing, budget is " + lnBudget, lnAllocated <= lnBudget);
+
+        final SparseDoubleVector loLatency = new SparseDoubleVector(ITERATIONS * 12, .75f, true);
+        assertLatency("addDouble", new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                loLatency.addDouble(tnIteration);
+            }
+        }, ITERATIONS, MAX_ADD_NANOS);
+    }
+
+    @Test
+    public void testSetDouble() throws Exception
+    {
+        startMarker();
+        final SparseDoubleVector loVector = createVector();
+        loVector.setTrackAggregates(true);
+        Operation loSet = new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                m_nSink += loVector.setDouble(tnIteration % 512, tnIteration);
+            }
+        };
+        assertAllocationFree("setDouble", loSet, ITERATIONS);
+        assertLatency("setDouble", loSet, ITERATIONS, MAX_ADD_NANOS);
+    }
+
+    @Test
+    public void testSnapshot() throws Exception
+    {
+        startMarker();
+        // Only the small run that is updated may be copied, the dense run is shared
+        final SparseDoubleVector loVector = createVector();
+        loVector.snapshot();
+        Operation loSnapshot = new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                loVector.setDouble(1000, tnIteration);
+                m_nSink += loVector.snapshot().getDouble(1000);
+            }
+        };
+        assertAllocation("snapshot", loSnapshot, ITERATIONS / 100, ITERATIONS / 100 * MAX_SNAPSHOT_BYTES);
+    }
+
+    @Test
+    public void testAggregates() throws Exception
+    {
+        startMarker();
+        final SparseDoubleVector loVector = createVector();
+        loVector.setTrackAggregates(true);
+        assertAllocationFree("tracked aggregates", new Operation()
+        {
+            @Override
+            public void run(int tnIteration)
+            {
+                m_nSink += loVector.getSum() + loVector.getL1Norm() + loVector.getL2Norm() + loVector.getNonZeroCount() + loVector.getMax();
+            }
+        }, ITERATIONS);
+    }
+}
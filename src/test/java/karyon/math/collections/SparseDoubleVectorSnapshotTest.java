@@ -0,0 +1,139 @@
+package karyon.math.collections;
+
+import karyon.testing.KaryonTest;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class SparseDoubleVectorSnapshotTest
+        extends KaryonTest
+{
+    @Test
+    public void testSnapshot() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVector = new SparseDoubleVector(new double[]{1, 2, 3}, false);
+        loVector.importNonZeros(new long[]{10, 11}, new double[]{4, 5}, 0, 2);
+
+        SparseDoubleVectorSnapshot loSnapshot = loVector.snapshot();
+        assertFalse(loSnapshot.isHorizontal());
+        assertEquals(12, loSnapshot.size());
+        assertEquals(5, loSnapshot.count());
+        assertEquals(1, loSnapshot.getDouble(0), 0);
+        assertEquals(3, loSnapshot.getDouble(2), 0);
+        assertEquals(0, loSnapshot.getDouble(5), 0);
+        assertEquals(5, loSnapshot.getDouble(11), 0);
+        assertEquals(0, loSnapshot.getDouble(12), 0);
+
+        // Updates are not visible in the snapshot
+        loVector.setDouble(1, 20);
+        loVector.addDouble(6);
+        assertEquals(2, loSnapshot.getDouble(1), 0);
+        assertEquals(0, loSnapshot.getDouble(12), 0);
+        assertEquals(12, loSnapshot.size());
+        assertSame(loSnapshot, loVector.getSnapshot());
+
+        SparseDoubleVectorSnapshot loNext = loVector.snapshot();
+        assertSame(loNext, loVector.getSnapshot());
+        assertEquals(20, loNext.getDouble(1), 0);
+        assertEquals(6, loNext.getDouble(12), 0);
+        assertEquals(13, loNext.size());
+    }
+
+    @Test
+    public void testSnapshot_shared() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVector = new SparseDoubleVector(new double[]{1, 2, 3});
+        loVector.importNonZeros(new long[]{10, 11, 20}, new double[]{4, 5, 6}, 0, 3);
+
+        SparseDoubleVectorSnapshot loFirst = loVector.snapshot();
+        assertSame(loFirst, loVector.snapshot());
+
+        // The updated run is copied, the previous snapshot keeps its values
+        loVector.setDouble(11, 50);
+        SparseDoubleVectorSnapshot loSecond = loVector.snapshot();
+        assertNotSame(loFirst, loSecond);
+        assertEquals(5, loFirst.getDouble(11), 0);
+        assertEquals(50, loSecond.getDouble(11), 0);
+        assertEquals(3, loSecond.getDouble(2), 0);
+        assertEquals(6, loSecond.getDouble(20), 0);
+    }
+
+    @Test
+    public void testGetSnapshot() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVector = new SparseDoubleVector();
+        assertNull(loVector.getSnapshot());
+        SparseDoubleVectorSnapshot loSnapshot = loVector.snapshot();
+        assertSame(loSnapshot, loVector.getSnapshot());
+        assertEquals(0, loSnapshot.size());
+        assertEquals(0, loSnapshot.count());
+        assertEquals(0, loSnapshot.getDouble(0), 0);
+
+        // Readers only see the contents once the writer publishes them
+        loVector = new SparseDoubleVector(new double[]{1, 2});
+        assertNull(loVector.getSnapshot());
+        loVector.snapshot();
+        loVector.addDouble(3);
+        assertEquals(2, loVector.getSnapshot().size());
+        assertEquals(2, loVector.getSnapshot().getDouble(1), 0);
+    }
+
+    @Test
+    public void testSnapshot_concurrentReaders() throws Exception
+    {
+        startMarker();
+        final int lnSize = 256;
+        final SparseDoubleVector loVector = new SparseDoubleVector(new double[lnSize]);
+        loVector.snapshot();
+        final AtomicBoolean llRunning = new AtomicBoolean(true);
+        final AtomicReference<String> loFailure = new AtomicReference<String>();
+
+        // Each published snapshot must contain a single complete round of updates
+        Thread[] laReaders = new Thread[4];
+        for (int i=0; i<laReaders.length; i++)
+        {
+            laReaders[i] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    while (llRunning.get() && loFailure.get() == null)
+                    {
+                        SparseDoubleVectorSnapshot loSnapshot = loVector.getSnapshot();
+                        double lnExpected = loSnapshot.getDouble(0);
+                        for (int j=1; j<lnSize; j++)
+                        {
+                            if (loSnapshot.getDouble(j) != lnExpected)
+                            {
+                                loFailure.set("Snapshot mixed rounds at index " + j);
+                            }
+                        }
+                    }
+                }
+            });
+            laReaders[i].start();
+        }
+
+        for (int lnRound = 1; lnRound <= 500; lnRound++)
+        {
+            for (int j=0; j<lnSize; j++)
+            {
+                loVector.setDouble(j, lnRound);
+            }
+            loVector.snapshot();
+        }
+        llRunning.set(false);
+        for (Thread loReader : laReaders)
+        {
+            loReader.join();
+        }
+        assertNull(loFailure.get());
+        assertEquals(500, loVector.getSnapshot().getDouble(lnSize - 1), 0);
+    }
+}
@@ -183,4 +183,313 @@ public class SparseDoubleVectorTest
             assertEquals(laDouble[i%5], loVec.getDouble(i), 0);
         }
     }
+
+    @Test
+    public void testAggregates() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVec = new SparseDoubleVector(new double[]{3, -4, 0});
+        assertFalse(loVec.isTrackingAggregates());
+        assertEquals(-1, loVec.getSum(), 0);
+        assertEquals(7, loVec.getL1Norm(), 0);
+        assertEquals(5, loVec.getL2Norm(), 0);
+        assertEquals(-4, loVec.getMin(), 0);
+        assertEquals(3, loVec.getMax(), 0);
+        assertEquals(2, loVec.getNonZeroCount());
+
+        assertTrue(Double.isNaN(new SparseDoubleVector().getMin()));
+        assertTrue(Double.isNaN(new SparseDoubleVector().getMax()));
+    }
+
+    @Test
+    public void testSetTrackAggregates() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVec = new SparseDoubleVector(new double[]{3, -4, 0});
+        loVec.setTrackAggregates(true);
+        assertTrue(loVec.isTrackingAggregates());
+
+        loVec.addDouble(12);
+        loVec.addAllDouble(new double[]{0, 0});
+        assertEquals(11, loVec.getSum(), 0);
+        assertEquals(19, loVec.getL1Norm(), 0);
+        assertEquals(13, loVec.getL2Norm(), 0);
+        assertEquals(3, loVec.getNonZeroCount());
+        assertEquals(12, loVec.getMax(), 0);
+
+        // Overwriting the max forces a recompute
+        assertEquals(12, loVec.setDouble(3, 1), 0);
+        assertEquals(3, loVec.getMax(), 0);
+        assertEquals(-4, loVec.getMin(), 0);
+
+        // Overwriting a zero changes the non zero count
+        loVec.setDouble(2, -10);
+        assertEquals(4, loVec.getNonZeroCount());
+        assertEquals(-10, loVec.getMin(), 0);
+        assertEquals(-10, loVec.getSum(), 0);
+
+        loVec.setTrackAggregates(false);
+        assertFalse(loVec.isTrackingAggregates());
+        assertEquals(-10, loVec.getSum(), 0);
+    }
+
+    @Test
+    public void testSetTrackAggregates_outsideRun() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVec = new SparseDoubleVector(new double[]{1, 2});
+        loVec.setTrackAggregates(true);
+        loVec.setDouble(2, 7);
+        assertAggregatesMatchScan(loVec);
+        loVec.setDouble(5, 9);
+        assertAggregatesMatchScan(loVec);
+        loVec.setDouble(1, -3);
+        assertAggregatesMatchScan(loVec);
+    }
+
+    /**
+     * Checks that the tracked aggregates of the vector match a fresh scan
+     * @param toVector a vector which is tracking aggregates
+     */
+    private void assertAggregatesMatchScan(SparseDoubleVector toVector)
+    {
+        double lnSum = toVector.getSum();
+        double lnL2Norm = toVector.getL2Norm();
+        long lnNonZeroCount = toVector.getNonZeroCount();
+        double lnMin = toVector.getMin();
+        double lnMax = toVector.getMax();
+
+        toVector.setTrackAggregates(false);
+        assertEquals(toVector.getSum(), lnSum, 1e-12);
+        assertEquals(toVector.getL2Norm(), lnL2Norm, 1e-12);
+        assertEquals(toVector.getNonZeroCount(), lnNonZeroCount);
+        assertEquals(toVector.getMin(), lnMin, 0);
+        assertEquals(toVector.getMax(), lnMax, 0);
+        toVector.setTrackAggregates(true);
+    }
+
+    @Test
+    public void testAggregates_compensated() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVec = new SparseDoubleVector();
+        loVec.setTrackAggregates(true);
+        loVec.addDouble(1e16);
+        for (int i=0; i<1000; i++)
+        {
+            loVec.addDouble(1);
+        }
+        loVec.setDouble(0, 0);
+        assertEquals(1000, loVec.getSum(), 0);
+    }
+
+    @Test
+    public void testCosineSimilarity() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVec1 = new SparseDoubleVector(new double[]{1, 2, 0, 3});
+        SparseDoubleVector loVec2 = new SparseDoubleVector(new double[]{2, 4, 5, 6});
+        loVec1.setTrackAggregates(true);
+        loVec2.setTrackAggregates(true);
+
+        assertEquals(28, loVec1.dot(loVec2), 0);
+        assertEquals(28 / (Math.sqrt(14) * 9), loVec1.cosineSimilarity(loVec2), 1e-12);
+        assertEquals(1, loVec1.cosineSimilarity(loVec1), 1e-12);
+        assertEquals(0, loVec1.cosineSimilarity(new SparseDoubleVector()), 0);
+    }
+
+    @Test
+    public void testSetDouble_pastEnd() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVec = new SparseDoubleVector(new double[]{1, 2});
+        assertEquals(0, loVec.setDouble(2, 3), 0);
+        assertEquals(0, loVec.setDouble(5, 7), 0);
+        assertEquals(3, loVec.getDouble(2), 0);
+        assertEquals(0, loVec.getDouble(4), 0);
+        assertEquals(7, loVec.getDouble(5), 0);
+        assertEquals(6, loVec.size());
+        assertEquals(4, loVec.count());
+        assertEquals(7, loVec.setDouble(5, 8), 0);
+
+        loVec.addDouble(9);
+        assertEquals(9, loVec.getDouble(6), 0);
+        assertEquals(8, loVec.getDouble(5), 0);
+
+        loVec = new SparseDoubleVector();
+        loVec.setDouble(0, 3);
+        assertEquals(3, loVec.getDouble(0), 0);
+        assertEquals(1, loVec.size());
+
+        final SparseDoubleVector loFinal = loVec;
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        loFinal.setDouble(-1, 1);
+                    }
+                }));
+    }
+
+    @Test
+    public void testSetDouble_multipleRuns() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVec = new SparseDoubleVector(new double[]{1, 2, 3});
+        loVec.importNonZeros(new long[]{10, 11, 20}, new double[]{4, 5, 6}, 0, 3);
+
+        // Inside a run
+        assertEquals(5, loVec.setDouble(11, 10), 0);
+        assertEquals(10, loVec.getDouble(11), 0);
+
+        // In the gaps between runs
+        assertEquals(0, loVec.setDouble(15, 9), 0);
+        assertEquals(0, loVec.setDouble(12, 8), 0);
+        assertEquals(0, loVec.setDouble(3, 7), 0);
+        assertEquals(7, loVec.getDouble(3), 0);
+        assertEquals(3, loVec.getDouble(2), 0);
+        assertEquals(4, loVec.getDouble(10), 0);
+        assertEquals(8, loVec.getDouble(12), 0);
+        assertEquals(9, loVec.getDouble(15), 0);
+        assertEquals(6, loVec.getDouble(20), 0);
+        assertEquals(0, loVec.getDouble(14), 0);
+        assertEquals(21, loVec.size());
+        assertEquals(9, loVec.count());
+
+        // Past the last run
+        loVec.setDouble(30, 1);
+        assertEquals(1, loVec.getDouble(30), 0);
+        assertEquals(6, loVec.getDouble(20), 0);
+        assertEquals(31, loVec.size());
+    }
+
+    @Test
+    public void testAddDouble_index() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVec = new SparseDoubleVector(new double[]{1, 2, 3});
+        loVec.setTrackAggregates(true);
+        loVec.importNonZeros(new long[]{10}, new double[]{4}, 0, 1);
+
+        loVec.addDouble(100L, 9);
+        assertEquals(9, loVec.getDouble(100), 0);
+        assertEquals(101, loVec.size());
+
+        // Inserting shifts every later value up one index
+        loVec.addDouble(1L, 8);
+        assertEquals(1, loVec.getDouble(0), 0);
+        assertEquals(8, loVec.getDouble(1), 0);
+        assertEquals(2, loVec.getDouble(2), 0);
+        assertEquals(3, loVec.getDouble(3), 0);
+        assertEquals(0, loVec.getDouble(10), 0);
+        assertEquals(4, loVec.getDouble(11), 0);
+        assertEquals(9, loVec.getDouble(101), 0);
+
+        // Inserting into a gap
+        loVec.addDouble(6L, 5);
+        assertEquals(5, loVec.getDouble(6), 0);
+        assertEquals(4, loVec.getDouble(12), 0);
+        assertEquals(9, loVec.getDouble(102), 0);
+        assertEquals(103, loVec.size());
+        assertEquals(7, loVec.count());
+        assertAggregatesMatchScan(loVec);
+    }
+
+    @Test
+    public void testExportNonZeros() throws Exception
+    {
+        startMarker();
+        double[] laDouble = new double[]{0, 1, 0, 2, 3, 0, 4, 5};
+        SparseDoubleVector loVec = new SparseDoubleVector(laDouble);
+
+        // Export in chunks of 3 with a resumable cursor
+        SparseDoubleVector.Cursor loCursor = new SparseDoubleVector.Cursor();
+        long[] laIndices = new long[4];
+        double[] laValues = new double[4];
+        assertEquals(3, loVec.exportNonZeros(loCursor, laIndices, laValues, 1, 3));
+        assertArrayEquals(new long[]{0, 1, 3, 4}, laIndices);
+        assertArrayEquals(new double[]{0, 1, 2, 3}, laValues, 0);
+        assertFalse(loCursor.isComplete());
+
+        assertEquals(2, loVec.exportNonZeros(loCursor, laIndices, laValues, 0, 3));
+        assertEquals(6, laIndices[0]);
+        assertEquals(7, laIndices[1]);
+        assertEquals(5, laValues[1], 0);
+        assertTrue(loCursor.isComplete());
+        assertEquals(5, loCursor.getExported());
+        assertEquals(0, loVec.exportNonZeros(loCursor, laIndices, laValues, 0, 3));
+
+        // Export into int indices and a direct buffer
+        loCursor.reset();
+        int[] laIntIndices = new int[10];
+        java.nio.DoubleBuffer loBuffer = java.nio.ByteBuffer.allocateDirect(8 * 2).asDoubleBuffer();
+        assertEquals(2, loVec.exportNonZeros(loCursor, laIntIndices, 0, loBuffer));
+        assertEquals(0, loBuffer.remaining());
+        assertEquals(1, laIntIndices[0]);
+        assertEquals(2, loBuffer.get(1), 0);
+        loBuffer.clear();
+        assertEquals(2, loVec.exportNonZeros(loCursor, laIntIndices, 2, loBuffer));
+        assertEquals(4, laIntIndices[2]);
+        assertEquals(6, laIntIndices[3]);
+
+        final SparseDoubleVector loFinal = loVec;
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        loFinal.exportNonZeros(new SparseDoubleVector.Cursor(), new long[2], new double[2], 1, 2);
+                    }
+                }));
+    }
+
+    @Test
+    public void testImportNonZeros() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVec = new SparseDoubleVector(new double[]{1, 2});
+        loVec.setTrackAggregates(true);
+        assertTrue(loVec.importNonZeros(new long[]{2, 3, 10, 11, 12, 40}, new double[]{3, 4, 5, 6, 7, 8}, 0, 6));
+        assertEquals(41, loVec.size());
+        assertEquals(8, loVec.count());
+        assertEquals(36, loVec.getSum(), 0);
+        assertEquals(3, loVec.getDouble(2), 0);
+        assertEquals(0, loVec.getDouble(5), 0);
+        assertEquals(6, loVec.getDouble(11), 0);
+        assertEquals(8, loVec.getDouble(40), 0);
+
+        loVec.addDouble(9);
+        assertEquals(42, loVec.size());
+        assertEquals(9, loVec.getDouble(41), 0);
+
+        // Round trip through a buffer
+        SparseDoubleVector.Cursor loCursor = new SparseDoubleVector.Cursor();
+        int[] laIndices = new int[16];
+        java.nio.DoubleBuffer loBuffer = java.nio.DoubleBuffer.allocate(16);
+        int lnCount = loVec.exportNonZeros(loCursor, laIndices, 0, loBuffer);
+        assertEquals(9, lnCount);
+        loBuffer.flip();
+        SparseDoubleVector loCopy = new SparseDoubleVector();
+        loCopy.importNonZeros(java.util.Arrays.copyOf(laIndices, lnCount), 0, loBuffer);
+        assertEquals(loVec.size(), loCopy.size());
+        for (int i=0; i<loVec.size(); i++)
+        {
+            assertEquals(loVec.getDouble(i), loCopy.getDouble(i), 0);
+        }
+
+        final SparseDoubleVector loFinal = loVec;
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        loFinal.importNonZeros(new long[]{50, 45}, new double[]{1, 1}, 0, 2);
+                    }
+                }));
+        assertEquals(42, loVec.size());
+    }
 }
@@ -0,0 +1,105 @@
+package karyon.math.io;
+
+import karyon.math.collections.SparseDoubleMatrix;
+import karyon.testing.KaryonTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CsvReaderTest
+        extends KaryonTest
+{
+    /**
+     * Creates a temporary file with the specified contents
+     * @param tcContents the contents of the file
+     * @return the file
+     */
+    private File createFile(String tcContents) throws IOException
+    {
+        File loFile = File.createTempFile("karyon", ".csv");
+        loFile.deleteOnExit();
+        FileOutputStream loStream = new FileOutputStream(loFile);
+        try
+        {
+            loStream.write(tcContents.getBytes("US-ASCII"));
+        }
+        finally
+        {
+            loStream.close();
+        }
+        return loFile;
+    }
+
+    @Test
+    public void testReadMatrix() throws Exception
+    {
+        startMarker();
+        File loFile = createFile(
+                "1, 0, 2.5\r\n" +
+                ",,-3\r\n" +
+                "\r\n" +
+                "0,4\r\n");
+        SparseDoubleMatrix loMatrix = new CsvReader(2).readMatrix(loFile);
+        assertEquals(3, loMatrix.getRowCount());
+        assertEquals(3, loMatrix.getColumnCount());
+        assertEquals(4, loMatrix.getNonZeroCount());
+        assertEquals(1, loMatrix.getDouble(0, 0), 0);
+        assertEquals(0, loMatrix.getDouble(0, 1), 0);
+        assertEquals(2.5, loMatrix.getDouble(0, 2), 0);
+        assertEquals(-3, loMatrix.getDouble(1, 2), 0);
+        assertEquals(4, loMatrix.getDouble(2, 1), 0);
+        assertEquals(0, loMatrix.getDouble(2, 2), 0);
+    }
+
+    @Test
+    public void testReadMatrix_chunked() throws Exception
+    {
+        startMarker();
+        Random loRandom = new Random(11);
+        double[][] laExpected = new double[300][8];
+        StringBuilder loBody = new StringBuilder();
+        for (int i=0; i<laExpected.length; i++)
+        {
+            for (int j=0; j<laExpected[i].length; j++)
+            {
+                if (loRandom.nextInt(3) == 0)
+                {
+                    laExpected[i][j] = loRandom.nextInt(2000) / 8.0 - 100;
+                    loBody.append(laExpected[i][j]);
+                }
+                loBody.append(j == laExpected[i].length - 1 ? '\n' : ',');
+            }
+        }
+        CsvReader loReader = new CsvReader(4);
+        loReader.setMinChunkSize(512);
+        SparseDoubleMatrix loMatrix = loReader.readMatrix(createFile(loBody.toString()));
+        assertEquals(laExpected.length, loMatrix.getRowCount());
+        for (int i=0; i<laExpected.length; i++)
+        {
+            for (int j=0; j<laExpected[i].length; j++)
+            {
+                assertEquals(laExpected[i][j], loMatrix.getDouble(i, j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testReadMatrix_invalid() throws Exception
+    {
+        startMarker();
+        try
+        {
+            new CsvReader().readMatrix(createFile("1,2\n3;4\n"));
+            fail("Expected an IOException");
+        }
+        catch (IOException ex)
+        {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package karyon.math.io;
+
+import karyon.math.collections.SparseDoubleMatrix;
+import karyon.testing.KaryonTest;
+import org.junit.Test;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class CsvWriterTest
+        extends KaryonTest
+{
+    @Test
+    public void testWrite() throws Exception
+    {
+        startMarker();
+        // [0 1.5 0  ]
+        // [0 0   0  ]
+        // [2 0   -1 ]
+        SparseDoubleMatrix loMatrix = new SparseDoubleMatrix(3, 3, new int[]{0, 1, 1, 3}, new int[]{1, 0, 2}, new double[]{1.5, 2, -1});
+        File loFile = File.createTempFile("karyon", ".csv");
+        loFile.deleteOnExit();
+        new CsvWriter().write(loMatrix, loFile);
+
+        SparseDoubleMatrix loRead = new CsvReader().readMatrix(loFile);
+        assertEquals(3, loRead.getRowCount());
+        assertEquals(3, loRead.getColumnCount());
+        assertEquals(3, loRead.getNonZeroCount());
+        for (int i=0; i<3; i++)
+        {
+            for (int j=0; j<3; j++)
+            {
+                assertEquals(loMatrix.getDouble(i, j), loRead.getDouble(i, j), 0);
+            }
+        }
+    }
+}
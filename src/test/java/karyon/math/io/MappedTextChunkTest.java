@@ -0,0 +1,87 @@
+package karyon.math.io;
+
+import karyon.testing.KaryonTest;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class MappedTextChunkTest
+        extends KaryonTest
+{
+    /**
+     * Creates a chunk over the text
+     * @param tcText the text
+     * @return the chunk
+     */
+    private MappedTextChunk createChunk(String tcText) throws IOException
+    {
+        return new MappedTextChunk(ByteBuffer.wrap(tcText.getBytes("US-ASCII")), 0);
+    }
+
+    @Test
+    public void testNextLong() throws Exception
+    {
+        startMarker();
+        MappedTextChunk loChunk = createChunk("12 -7\t+3\n");
+        assertEquals(12, loChunk.nextLong());
+        assertEquals(-7, loChunk.nextLong());
+        assertEquals(3, loChunk.nextLong());
+        assertTrue(loChunk.isLineEnd());
+    }
+
+    @Test
+    public void testNextDouble() throws Exception
+    {
+        startMarker();
+        String[] laValues = new String[]{
+                "0", "-0", "1", "-1.5", "0.1", "3.14159", "1e10", "1E-5", "-2.5e+3", ".5", "5.",
+                "123456789012345", "1234567890123456789012", "0.000000000000000000000001",
+                "1.7976931348623157e308", "4.9e-324", "2.2250738585072014E-308",
+                "0.30000000000000004", "9007199254740993", "NaN", "-Infinity"};
+        StringBuilder loText = new StringBuilder();
+        for (String lcValue : laValues)
+        {
+            loText.append(lcValue).append(' ');
+        }
+        MappedTextChunk loChunk = createChunk(loText.toString());
+        for (String lcValue : laValues)
+        {
+            double lnExpected = Double.parseDouble(lcValue);
+            double lnActual = loChunk.nextDouble();
+            assertEquals(lcValue, Double.doubleToLongBits(lnExpected), Double.doubleToLongBits(lnActual));
+        }
+    }
+
+    @Test
+    public void testNextDouble_invalid() throws Exception
+    {
+        startMarker();
+        String[] laInvalid = new String[]{"abc", "1.2.3", "1e", "--1", "1x"};
+        for (String lcValue : laInvalid)
+        {
+            try
+            {
+                createChunk(lcValue).nextDouble();
+                fail("Expected an IOException for " + lcValue);
+            }
+            catch (IOException ex)
+            {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testSkipBlankAndCommentLines() throws Exception
+    {
+        startMarker();
+        MappedTextChunk loChunk = createChunk("% comment\n\n  \r\n%another\n42\n");
+        assertTrue(loChunk.skipBlankAndCommentLines('%'));
+        assertEquals(42, loChunk.nextLong());
+        loChunk.skipLine();
+        assertFalse(loChunk.skipBlankAndCommentLines('%'));
+    }
+}
@@ -0,0 +1,255 @@
+package karyon.math.io;
+
+import karyon.exceptions.InvalidParameterException;
+import karyon.math.collections.SparseDoubleMatrix;
+import karyon.math.collections.SparseDoubleVector;
+import karyon.testing.KaryonTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MatrixMarketReaderTest
+        extends KaryonTest
+{
+    /**
+     * Creates a temporary file with the specified contents
+     * @param tcContents the contents of the file
+     * @return the file
+     */
+    private File createFile(String tcContents) throws IOException
+    {
+        File loFile = File.createTempFile("karyon", ".mtx");
+        loFile.deleteOnExit();
+        FileOutputStream loStream = new FileOutputStream(loFile);
+        try
+        {
+            loStream.write(tcContents.getBytes("US-ASCII"));
+        }
+        finally
+        {
+            loStream.close();
+        }
+        return loFile;
+    }
+
+    @Test
+    public void testConstructor() throws Exception
+    {
+        startMarker();
+        assertEquals(Runtime.getRuntime().availableProcessors(), new MatrixMarketReader().getThreads());
+        assertEquals(3, new MatrixMarketReader(3).getThreads());
+        assertTrue(
+                willThrow(InvalidParameterException.class, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        new MatrixMarketReader(0);
+                    }
+                }));
+    }
+
+    @Test
+    public void testReadMatrix() throws Exception
+    {
+        startMarker();
+        File loFile = createFile(
+                "%%MatrixMarket matrix coordinate real general\n" +
+                "% a comment\n" +
+                "3 4 5\n" +
+                "3 2 -2.5e1\n" +
+                "1 4 0.125\n" +
+                "1 1 1\n" +
+                "\n" +
+                "2 3 123456789.123456789\n" +
+                "1 2 -7\n");
+        SparseDoubleMatrix loMatrix = new MatrixMarketReader(2).readMatrix(loFile);
+        assertEquals(3, loMatrix.getRowCount());
+        assertEquals(4, loMatrix.getColumnCount());
+        assertEquals(5, loMatrix.getNonZeroCount());
+        assertEquals(1, loMatrix.getDouble(0, 0), 0);
+        assertEquals(-7, loMatrix.getDouble(0, 1), 0);
+        assertEquals(0.125, loMatrix.getDouble(0, 3), 0);
+        assertEquals(123456789.123456789, loMatrix.getDouble(1, 2), 0);
+        assertEquals(-25, loMatrix.getDouble(2, 1), 0);
+        assertEquals(0, loMatrix.getDouble(2, 2), 0);
+
+        // Rows are sorted by column
+        assertEquals(0, loMatrix.getColumnIndex(0));
+        assertEquals(1, loMatrix.getColumnIndex(1));
+        assertEquals(3, loMatrix.getColumnIndex(2));
+    }
+
+    @Test
+    public void testReadMatrix_symmetric() throws Exception
+    {
+        startMarker();
+        File loFile = createFile(
+                "%%MatrixMarket matrix coordinate real symmetric\n" +
+                "3 3 3\n" +
+                "1 1 4\n" +
+                "3 1 2\n" +
+                "3 2 5\n");
+        SparseDoubleMatrix loMatrix = new MatrixMarketReader().readMatrix(loFile);
+        assertEquals(5, loMatrix.getNonZeroCount());
+        assertEquals(4, loMatrix.getDouble(0, 0), 0);
+        assertEquals(2, loMatrix.getDouble(0, 2), 0);
+        assertEquals(2, loMatrix.getDouble(2, 0), 0);
+        assertEquals(5, loMatrix.getDouble(1, 2), 0);
+        assertEquals(5, loMatrix.getDouble(2, 1), 0);
+
+        loFile = createFile(
+                "%%MatrixMarket matrix coordinate integer skew-symmetric\n" +
+                "2 2 1\n" +
+                "2 1 3\n");
+        loMatrix = new MatrixMarketReader().readMatrix(loFile);
+        assertEquals(3, loMatrix.getDouble(1, 0), 0);
+        assertEquals(-3, loMatrix.getDouble(0, 1), 0);
+    }
+
+    @Test
+    public void testReadMatrix_pattern() throws Exception
+    {
+        startMarker();
+        File loFile = createFile(
+                "%%MatrixMarket matrix coordinate pattern general\n" +
+                "2 2 2\n" +
+                "1 2\n" +
+                "2 1\n");
+        SparseDoubleMatrix loMatrix = new MatrixMarketReader().readMatrix(loFile);
+        assertEquals(1, loMatrix.getDouble(0, 1), 0);
+        assertEquals(1, loMatrix.getDouble(1, 0), 0);
+        assertEquals(0, loMatrix.getDouble(0, 0), 0);
+    }
+
+    @Test
+    public void testReadMatrix_chunked() throws Exception
+    {
+        startMarker();
+        Random loRandom = new Random(42);
+        int lnRows = 200;
+        int lnColumns = 50;
+        double[][] laExpected = new double[lnRows][lnColumns];
+        StringBuilder loBody = new StringBuilder();
+        int lnEntries = 0;
+        for (int i=0; i<2000; i++)
+        {
+            int lnRow = loRandom.nextInt(lnRows);
+            int lnColumn = loRandom.nextInt(lnColumns);
+            if (laExpected[lnRow][lnColumn] == 0)
+            {
+                double lnValue = loRandom.nextGaussian() * Math.pow(10, loRandom.nextInt(40) - 20);
+                laExpected[lnRow][lnColumn] = lnValue;
+                loBody.append(lnRow + 1).append(' ').append(lnColumn + 1).append(' ').append(lnValue).append('\n');
+                lnEntries++;
+            }
+        }
+        File loFile = createFile("%%MatrixMarket matrix coordinate real general\n" +
+                lnRows + " " + lnColumns + " " + lnEntries + "\n" + loBody);
+
+        MatrixMarketReader loReader = new MatrixMarketReader(4);
+        loReader.setMinChunkSize(256);
+        SparseDoubleMatrix loMatrix = loReader.readMatrix(loFile);
+        assertEquals(lnEntries, loMatrix.getNonZeroCount());
+        for (int i=0; i<lnRows; i++)
+        {
+            for (int j=0; j<lnColumns; j++)
+            {
+                assertEquals(laExpected[i][j], loMatrix.getDouble(i, j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testReadMatrix_invalid() throws Exception
+    {
+        startMarker();
+        String[] laInvalid = new String[]{
+                "not a matrix market file\n1 1 1\n1 1 1\n",
+                "%%MatrixMarket matrix array real general\n1 1\n1\n",
+                "%%MatrixMarket matrix coordinate complex general\n1 1 1\n1 1 1 0\n",
+                "%%MatrixMarket matrix coordinate real general\n2 2 2\n1 1 1\n",
+                "%%MatrixMarket matrix coordinate real general\n2 2 1\n3 1 1\n",
+                "%%MatrixMarket matrix coordinate real general\n2 2 1\n1 1 abc\n",
+                "%%MatrixMarket matrix coordinate real symmetric\n2 3 1\n1 1 1\n"};
+        for (String lcContents : laInvalid)
+        {
+            File loFile = createFile(lcContents);
+            try
+            {
+                new MatrixMarketReader().readMatrix(loFile);
+                fail("Expected an IOException for " + lcContents);
+            }
+            catch (IOException ex)
+            {
+                // Expected
+            }
+        }
+    }
+
+    @Test
+    public void testReadVector() throws Exception
+    {
+        startMarker();
+        File loFile = createFile(
+                "%%MatrixMarket matrix coordinate real general\n" +
+                "4 1 2\n" +
+                "4 1 3.5\n" +
+                "2 1 -1\n");
+        SparseDoubleVector loVector = new MatrixMarketReader().readVector(loFile);
+        assertFalse(loVector.isHorizontal());
+        assertEquals(4, loVector.size());
+        assertEquals(0, loVector.getDouble(0), 0);
+        assertEquals(-1, loVector.getDouble(1), 0);
+        assertEquals(3.5, loVector.getDouble(3), 0);
+
+        loFile = createFile(
+                "%%MatrixMarket matrix coordinate real general\n" +
+                "1 3 1\n" +
+                "1 2 9\n");
+        loVector = new MatrixMarketReader().readVector(loFile);
+        assertTrue(loVector.isHorizontal());
+        assertEquals(2, loVector.size());
+        assertEquals(1, loVector.count());
+        assertEquals(9, loVector.getDouble(1), 0);
+    }
+
+    @Test
+    public void testReadVector_sparse() throws Exception
+    {
+        startMarker();
+        // Only the entries are stored, not the full dimension
+        StringBuilder loContents = new StringBuilder("%%MatrixMarket matrix coordinate real general\n1000000000 1 10\n");
+        for (int i=10; i>0; i--)
+        {
+            loContents.append(i * 99999999L).append(" 1 ").append(i == 5 ? 0 : i).append('\n');
+        }
+        SparseDoubleVector loVector = new MatrixMarketReader().readVector(createFile(loContents.toString()));
+        assertEquals(10, loVector.count());
+        assertEquals(999999990, loVector.size());
+        assertEquals(1, loVector.getDouble(99999998), 0);
+        assertEquals(0, loVector.getDouble(99999999), 0);
+        assertEquals(0, loVector.getDouble(5 * 99999999L - 1), 0);
+        assertEquals(10, loVector.getDouble(999999989), 0);
+
+        File loFile = createFile(
+                "%%MatrixMarket matrix coordinate real general\n" +
+                "5 1 2\n" +
+                "2 1 1\n" +
+                "2 1 3\n");
+        try
+        {
+            new MatrixMarketReader().readVector(loFile);
+            fail("Duplicate entries should not be read");
+        }
+        catch (IOException ex)
+        {
+            // Expected
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package karyon.math.io;
+
+import karyon.math.collections.SparseDoubleMatrix;
+import karyon.math.collections.SparseDoubleVector;
+import karyon.testing.KaryonTest;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MatrixMarketWriterTest
+        extends KaryonTest
+{
+    @Test
+    public void testWrite_matrix() throws Exception
+    {
+        startMarker();
+        Random loRandom = new Random(7);
+        int lnRows = 100;
+        int lnColumns = 30;
+        int[] laRowPointers = new int[lnRows + 1];
+        int[] laColumns = new int[lnRows * 3];
+        double[] laValues = new double[lnRows * 3];
+        int lnCount = 0;
+        for (int i=0; i<lnRows; i++)
+        {
+            for (int j=0; j<lnColumns; j+=10)
+            {
+                laColumns[lnCount] = j + loRandom.nextInt(10);
+                laValues[lnCount++] = loRandom.nextDouble() * 1e6 - 5e5;
+            }
+            laRowPointers[i + 1] = lnCount;
+        }
+        SparseDoubleMatrix loMatrix = new SparseDoubleMatrix(lnRows, lnColumns, laRowPointers, laColumns, laValues);
+
+        File loFile = File.createTempFile("karyon", ".mtx");
+        loFile.deleteOnExit();
+        new MatrixMarketWriter().write(loMatrix, loFile);
+
+        MatrixMarketReader loReader = new MatrixMarketReader(3);
+        loReader.setMinChunkSize(128);
+        SparseDoubleMatrix loRead = loReader.readMatrix(loFile);
+        assertEquals(lnRows, loRead.getRowCount());
+        assertEquals(lnColumns, loRead.getColumnCount());
+        assertEquals(lnCount, loRead.getNonZeroCount());
+        for (int i=0; i<lnRows; i++)
+        {
+            for (int j=0; j<lnColumns; j++)
+            {
+                assertEquals(loMatrix.getDouble(i, j), loRead.getDouble(i, j), 0);
+            }
+        }
+    }
+
+    @Test
+    public void testWrite_vector() throws Exception
+    {
+        startMarker();
+        SparseDoubleVector loVector = new SparseDoubleVector(new double[]{0, 1.5, 0, -3, 1e-300}, false);
+        File loFile = File.createTempFile("karyon", ".mtx");
+        loFile.deleteOnExit();
+        new MatrixMarketWriter().write(loVector, loFile);
+
+        SparseDoubleVector loRead = new MatrixMarketReader().readVector(loFile);
+        assertFalse(loRead.isHorizontal());
+        assertEquals(loVector.size(), loRead.size());
+        assertEquals(3, loRead.count());
+        for (int i=0; i<loVector.size(); i++)
+        {
+            assertEquals(loVector.getDouble(i), loRead.getDouble(i), 0);
+        }
+    }
+}